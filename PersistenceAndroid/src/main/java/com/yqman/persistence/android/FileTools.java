@@ -14,19 +14,180 @@
 
 package com.yqman.persistence.android;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import android.webkit.MimeTypeMap;
 
 public class FileTools {
+    private static final String DEFAULT_TYPE = "application/octet-stream";
+    /**
+     * 运行时从MimeTypeMap补充到表中的扩展名个数上限，超出后未命中的扩展名每次都查询MimeTypeMap
+     */
+    private static final int MAX_MEMOIZED = 256;
+
+    /**
+     * 常用扩展名，类型以MimeTypeMap的结果为准，这里的类型只在平台不认识该扩展名时使用
+     * 与平台不一致的类型会让DocumentsProvider给文件名追加扩展名
+     */
+    private static final String[][] COMMON_TYPES = new String[][] {
+            {"txt", "text/plain"},
+            {"log", "text/plain"},
+            {"htm", "text/html"},
+            {"html", "text/html"},
+            {"css", "text/css"},
+            {"csv", "text/comma-separated-values"},
+            {"xml", "text/xml"},
+            {"js", "application/javascript"},
+            {"json", "application/json"},
+            {"pdf", "application/pdf"},
+            {"rtf", "application/rtf"},
+            {"epub", "application/epub+zip"},
+            {"zip", "application/zip"},
+            {"gz", "application/gzip"},
+            {"tar", "application/x-tar"},
+            {"7z", "application/x-7z-compressed"},
+            {"rar", "application/rar"},
+            {"apk", "application/vnd.android.package-archive"},
+            {"doc", "application/msword"},
+            {"docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"},
+            {"xls", "application/vnd.ms-excel"},
+            {"xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"},
+            {"ppt", "application/vnd.ms-powerpoint"},
+            {"pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation"},
+            {"jpg", "image/jpeg"},
+            {"jpeg", "image/jpeg"},
+            {"png", "image/png"},
+            {"gif", "image/gif"},
+            {"webp", "image/webp"},
+            {"bmp", "image/x-ms-bmp"},
+            {"heic", "image/heic"},
+            {"heif", "image/heif"},
+            {"svg", "image/svg+xml"},
+            {"ico", "image/x-icon"},
+            {"mp3", "audio/mpeg"},
+            {"m4a", "audio/mp4"},
+            {"aac", "audio/aac"},
+            {"wav", "audio/x-wav"},
+            {"ogg", "audio/ogg"},
+            {"flac", "audio/flac"},
+            {"amr", "audio/amr"},
+            {"mid", "audio/midi"},
+            {"mp4", "video/mp4"},
+            {"m4v", "video/mp4"},
+            {"3gp", "video/3gpp"},
+            {"mkv", "video/x-matroska"},
+            {"webm", "video/webm"},
+            {"avi", "video/avi"},
+            {"mov", "video/quicktime"},
+            {"ttf", "application/x-font-ttf"},
+            {"otf", "font/otf"},
+    };
+
+    private static final LinkedHashMap<String, String> sEntries = new LinkedHashMap<>();
+    private static volatile ExtensionTable sTable;
+    private static int sMemoizedCount;
+
+    /**
+     * 常用扩展名在不可变表中查找，不创建对象也不加锁，表在第一次调用时从MimeTypeMap构建；
+     * 未命中时查询一次MimeTypeMap，结果(包括查不到)写回表中
+     */
     public static String getTypeForName(String name) {
         final int lastDot = name.lastIndexOf('.');
-        if (lastDot >= 0) {
-            final String extension = name.substring(lastDot + 1).toLowerCase();
-            final String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
-            if (mime != null) {
-                return mime;
+        if (lastDot < 0) {
+            return DEFAULT_TYPE;
+        }
+        final String mime = getTable().get(name, lastDot + 1);
+        if (mime != null) {
+            return mime;
+        }
+        return resolveAndMemoize(name.substring(lastDot + 1).toLowerCase());
+    }
+
+    private static ExtensionTable getTable() {
+        final ExtensionTable table = sTable;
+        if (table != null) {
+            return table;
+        }
+        synchronized(sEntries) {
+            if (sTable == null) {
+                final MimeTypeMap mimeTypeMap = MimeTypeMap.getSingleton();
+                for (String[] entry : COMMON_TYPES) {
+                    final String mime = mimeTypeMap.getMimeTypeFromExtension(entry[0]);
+                    sEntries.put(entry[0], mime != null ? mime : entry[1]);
+                }
+                sTable = new ExtensionTable(sEntries);
             }
+            return sTable;
         }
+    }
 
-        return "application/octet-stream";
+    private static String resolveAndMemoize(String extension) {
+        String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        if (mime == null) {
+            mime = DEFAULT_TYPE;
+        }
+        getTable();
+        synchronized(sEntries) {
+            if (sMemoizedCount < MAX_MEMOIZED && !sEntries.containsKey(extension)) {
+                sMemoizedCount++;
+                sEntries.put(extension, mime);
+                // 复制后整体替换，读取方始终看到完整的表
+                sTable = new ExtensionTable(sEntries);
+            }
+        }
+        return mime;
+    }
+
+    /**
+     * 扩展名到MIME类型的开放寻址表，按字符计算不区分大小写的哈希，直接与文件名的后缀区间比较
+     */
+    private static final class ExtensionTable {
+        private final String[] mKeys;
+        private final String[] mValues;
+        private final int mMask;
+
+        ExtensionTable(LinkedHashMap<String, String> entries) {
+            int capacity = 16;
+            while (capacity < entries.size() * 2) {
+                capacity <<= 1;
+            }
+            mKeys = new String[capacity];
+            mValues = new String[capacity];
+            mMask = capacity - 1;
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                final String key = entry.getKey();
+                int index = hash(key, 0) & mMask;
+                while (mKeys[index] != null) {
+                    index = (index + 1) & mMask;
+                }
+                mKeys[index] = key;
+                mValues[index] = entry.getValue();
+            }
+        }
+
+        /**
+         * @param start 扩展名在name中的起始位置
+         */
+        String get(String name, int start) {
+            final int length = name.length() - start;
+            int index = hash(name, start) & mMask;
+            String key;
+            while ((key = mKeys[index]) != null) {
+                if (key.length() == length && name.regionMatches(true, start, key, 0, length)) {
+                    return mValues[index];
+                }
+                index = (index + 1) & mMask;
+            }
+            return null;
+        }
+
+        private static int hash(String value, int start) {
+            int hash = 0;
+            for (int i = start; i < value.length(); i++) {
+                hash = 31 * hash + Character.toLowerCase(value.charAt(i));
+            }
+            return hash ^ (hash >>> 16);
+        }
     }
 }
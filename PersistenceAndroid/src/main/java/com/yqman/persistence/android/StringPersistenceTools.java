@@ -26,7 +26,9 @@ import java.util.Map;
 
 import com.yqman.persistence.android.database.BaseWCDBDatabase;
 import com.yqman.persistence.android.database.IDatabaseOperation;
-import com.yqman.persistence.android.file.AndroidDirectory;
+import com.yqman.persistence.android.file.DiskLruCache;
+import com.yqman.persistence.android.file.RawDirectory;
+import com.yqman.persistence.android.file.RawFile;
 import com.yqman.persistence.file.FileAccessErrException;
 import com.yqman.persistence.file.IFileVisitor;
 
@@ -34,7 +36,6 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.support.annotation.NonNull;
-import android.support.v4.provider.DocumentFile;
 
 /**
  * String持久化工具，可以利用来存储json信息
@@ -152,12 +153,12 @@ public class StringPersistenceTools {
      */
     public static class FileStringPersistenceImpl implements IStringPersistence {
 
-        private final AndroidDirectory mDirectory;
+        private final RawDirectory mDirectory;
 
         public FileStringPersistenceImpl(Context context) throws FileAccessErrException {
             File directory = new File(context.getCacheDir(), "StringPersistence");
             if (directory.exists() || directory.mkdirs()) {
-                mDirectory = new AndroidDirectory(context, DocumentFile.fromFile(directory));
+                mDirectory = new RawDirectory(directory);
             } else {
                 throw new FileAccessErrException("create directory failed:" + directory.getAbsolutePath());
             }
@@ -166,11 +167,8 @@ public class StringPersistenceTools {
         @Override
         public boolean saveString(String key, String value) {
             try {
-                IFileVisitor fileVisitor = getLocalFile(key);
-                if (fileVisitor == null) {
-                    return false;
-                }
-                fileVisitor.writeString(value, false);
+                // 整体替换，写入过程中崩溃不会留下不完整的json
+                getLocalFile(key).writeStringAtomically(value);
                 return true;
             } catch (FileAccessErrException e) {
                 return false;
@@ -204,18 +202,65 @@ public class StringPersistenceTools {
             }
         }
 
-        private IFileVisitor getLocalFile(String key) throws FileAccessErrException {
-            String fileName = key + ".json";
-            for (IFileVisitor fileVisitor: mDirectory.listFiles()) {
-                if (fileVisitor.getDisplayName().equals(fileName)) {
-                    return fileVisitor;
+        /**
+         * 文件不存在时创建，直接按路径访问，不再列举整个目录
+         */
+        private RawFile getLocalFile(String key) throws FileAccessErrException {
+            return mDirectory.createNewFile(key + ".json");
+        }
+    }
+
+    /**
+     * 使用{@link DiskLruCache}存储字符串，总大小超出上限时淘汰最久未访问的字符串
+     */
+    public static class DiskLruStringPersistenceImpl implements IStringPersistence {
+        private static final int APP_VERSION = 1;
+        private static final long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+
+        private final DiskLruCache mCache;
+
+        public DiskLruStringPersistenceImpl(Context context) throws FileAccessErrException {
+            this(context, DEFAULT_MAX_BYTES);
+        }
+
+        public DiskLruStringPersistenceImpl(Context context, long maxBytes) throws FileAccessErrException {
+            mCache = DiskLruCache.open(new File(context.getCacheDir(), "StringPersistenceLru"), APP_VERSION,
+                    maxBytes);
+        }
+
+        @Override
+        public boolean saveString(String key, String value) {
+            try {
+                DiskLruCache.Editor editor = mCache.edit(DiskLruCache.hashKey(key));
+                if (editor == null) {
+                    return false;
+                }
+                try {
+                    editor.set(value);
+                } catch (FileAccessErrException e) {
+                    editor.abort();
+                    return false;
                 }
+                editor.commit();
+                return true;
+            } catch (FileAccessErrException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public String obtainString(String key) {
+            try {
+                DiskLruCache.Snapshot snapshot = mCache.get(DiskLruCache.hashKey(key));
+                return snapshot != null ? snapshot.getString() : null;
+            } catch (FileAccessErrException e) {
+                return null;
             }
-            return mDirectory.createNewFile(fileName);
         }
     }
 
     public static class SQLiteStringPersistenceIml implements IStringPersistence {
+        private static final String[] VALUE_PROJECTION = new String[] {Contract.VALUE};
 
         private final Database mDatabase;
 
@@ -233,14 +278,20 @@ public class StringPersistenceTools {
 
         @Override
         public String obtainString(String key) {
-            Cursor cursor = mDatabase.getDatabase(false).query(Contract.TABLE, null,
+            Cursor cursor = mDatabase.getDatabase(false).query(Contract.TABLE, VALUE_PROJECTION,
                     Contract.KEY + "=?", new String[] {key},
                     null, null, null);
-            if (cursor.getCount() > 0) {
-                cursor.moveToFirst();
-                return cursor.getString(cursor.getColumnIndex(Contract.VALUE));
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                if (cursor.moveToFirst()) {
+                    return cursor.getString(0);
+                }
+                return null;
+            } finally {
+                cursor.close();
             }
-            return null;
         }
 
         private static class Database extends BaseWCDBDatabase {
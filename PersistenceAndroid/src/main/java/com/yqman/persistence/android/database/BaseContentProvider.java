@@ -14,12 +14,22 @@
 
 package com.yqman.persistence.android.database;
 
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -29,6 +39,14 @@ import android.support.annotation.Nullable;
  */
 
 public abstract class BaseContentProvider extends ContentProvider {
+    private volatile UriRouter mUriRouter;
+    private volatile boolean mUriRouterCreated;
+    private final ThreadLocal<PendingNotification> mPendingNotification = new ThreadLocal<PendingNotification>() {
+        @Override
+        protected PendingNotification initialValue() {
+            return new PendingNotification();
+        }
+    };
 
     @Override
     public boolean onCreate() {
@@ -38,31 +56,277 @@ public abstract class BaseContentProvider extends ContentProvider {
     @Nullable
     @Override
     public String getType(@NonNull Uri uri) {
-        return null;
+        final UriRouter.Match match = matchUri(uri);
+        return match == null ? null : match.getRoute().getMimeType();
     }
 
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] strings, @Nullable String s, @Nullable String[] strings1,
                         @Nullable String s1) {
-        return doQuery(uri, strings, s, strings1, s1);
+        final UriRouter.Match match = requireMatch(uri);
+        if (match == null) {
+            return doQuery(uri, strings, s, strings1, s1);
+        }
+        final long startTime = System.nanoTime();
+        final Cursor cursor = doQuery(uri, strings, match.buildSelection(s), match.buildSelectionArgs(strings1), s1);
+        // 只记录耗时，游标是惰性执行的，getCount()会把查询提前在这里跑完
+        match.getRoute().record(System.nanoTime() - startTime, 0);
+        return cursor;
     }
 
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
-        return doInsert(uri, contentValues);
+        final UriRouter.Match match = requireMatch(uri);
+        if (match == null) {
+            return doInsert(uri, contentValues);
+        }
+        final long startTime = System.nanoTime();
+        final Uri result = doInsert(uri, contentValues);
+        match.getRoute().record(System.nanoTime() - startTime, result == null ? 0 : 1);
+        return result;
     }
 
     @Override
     public int delete(@NonNull Uri uri, @Nullable String s, @Nullable String[] strings) {
-        return doDelete(uri, s, strings);
+        final UriRouter.Match match = requireMatch(uri);
+        if (match == null) {
+            return doDelete(uri, s, strings);
+        }
+        final long startTime = System.nanoTime();
+        final int count = doDelete(uri, match.buildSelection(s), match.buildSelectionArgs(strings));
+        match.getRoute().record(System.nanoTime() - startTime, count);
+        return count;
     }
 
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues, @Nullable String s,
                       @Nullable String[] strings) {
-        return doUpdate(uri, contentValues, s, strings);
+        final UriRouter.Match match = requireMatch(uri);
+        if (match == null) {
+            return doUpdate(uri, contentValues, s, strings);
+        }
+        final long startTime = System.nanoTime();
+        final int count = doUpdate(uri, contentValues, match.buildSelection(s), match.buildSelectionArgs(strings));
+        match.getRoute().record(System.nanoTime() - startTime, count);
+        return count;
+    }
+
+    /**
+     * 处理{@link CursorBlob#query}发起的查询，结果较小时通过管道返回，较大时以只读临时文件的形式返回给调用方mmap读取
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (CursorBlob.isBlobQuery(uri)) {
+            final Context context = getContext();
+            if (!isBlobQueryEnabled() || context == null) {
+                throw new FileNotFoundException("blob query is not enabled:" + uri);
+            }
+            return CursorBlob.openBlobQuery(this, uri, context.getCacheDir());
+        }
+        return super.openFile(uri, mode);
+    }
+
+    /**
+     * 是否允许通过{@link CursorBlob}返回查询结果，适合跨进程读取大量只读数据
+     */
+    protected boolean isBlobQueryEnabled() {
+        return false;
+    }
+
+    /**
+     * 输出每条路由的统计信息，通过 adb shell dumpsys activity provider 查看
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        final UriRouter router = getUriRouter();
+        if (router == null) {
+            super.dump(fd, writer, args);
+            return;
+        }
+        for (UriRouter.Route route : router.getRoutes()) {
+            writer.println(route);
+        }
+    }
+
+    /**
+     * 批量插入在一个事务中执行，所有变更在事务提交后合并为一次通知
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final UriRouter.Match match = requireMatch(uri);
+        final long startTime = System.nanoTime();
+        final ITransactionDatabaseOperation database = beginBatch();
+        boolean successful = false;
+        try {
+            final int count = doBulkInsert(uri, values);
+            if (count > 0) {
+                notifyChange(uri);
+            }
+            if (database != null) {
+                database.setTransactionSuccessful();
+            }
+            successful = true;
+            if (match != null) {
+                match.getRoute().record(System.nanoTime() - startTime, count);
+            }
+            return count;
+        } finally {
+            endBatch(database, successful);
+        }
+    }
+
+    /**
+     * 批量操作在一个事务中执行，任意一个操作失败整体回滚，所有变更在事务提交后合并为一次通知
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final ITransactionDatabaseOperation database = beginBatch();
+        boolean successful = false;
+        try {
+            final ContentProviderResult[] results = doApplyBatch(operations);
+            if (database != null) {
+                database.setTransactionSuccessful();
+            }
+            successful = true;
+            return results;
+        } finally {
+            endBatch(database, successful);
+        }
+    }
+
+    /**
+     * 匹配uri，没有设置路由表时返回null
+     */
+    @Nullable
+    protected final UriRouter.Match matchUri(@NonNull Uri uri) {
+        final UriRouter router = getUriRouter();
+        return router == null ? null : router.match(uri);
+    }
+
+    /**
+     * 创建路由表，返回null时所有uri直接交给doXxx处理
+     * 设置路由表后无法匹配的uri会抛出IllegalArgumentException，避免错误的uri变成全表操作
+     */
+    @Nullable
+    protected UriRouter onCreateUriRouter() {
+        return null;
+    }
+
+    @Nullable
+    private UriRouter getUriRouter() {
+        if (!mUriRouterCreated) {
+            synchronized (this) {
+                if (!mUriRouterCreated) {
+                    mUriRouter = onCreateUriRouter();
+                    mUriRouterCreated = true;
+                }
+            }
+        }
+        return mUriRouter;
+    }
+
+    @Nullable
+    private UriRouter.Match requireMatch(@NonNull Uri uri) {
+        final UriRouter router = getUriRouter();
+        if (router == null) {
+            return null;
+        }
+        final UriRouter.Match match = router.match(uri);
+        if (match == null) {
+            throw new IllegalArgumentException("unknown uri:" + uri);
+        }
+        return match;
+    }
+
+    /**
+     * 通知数据变化，批量操作过程中的通知会延迟到事务提交后，并且同一个uri只通知一次
+     */
+    protected final void notifyChange(@NonNull Uri uri) {
+        final PendingNotification notification = mPendingNotification.get();
+        if (notification.depth > 0) {
+            notification.uris.add(uri);
+            return;
+        }
+        final ContentResolver contentResolver = getContentResolver();
+        if (contentResolver != null) {
+            contentResolver.notifyChange(uri, null, false);
+        }
+    }
+
+    /**
+     * @return 批量操作使用的数据库，返回null或者数据库不支持事务({@link ITransactionDatabaseOperation})时批量操作不会开启事务
+     */
+    @Nullable
+    protected IDatabaseContext getDatabaseContext() {
+        return null;
+    }
+
+    /**
+     * 批量插入，已经运行在事务中，默认逐条调用{@link #doInsert(Uri, ContentValues)}
+     * @return 插入的条数
+     */
+    protected int doBulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        for (ContentValues contentValues : values) {
+            doInsert(uri, contentValues);
+        }
+        return values.length;
+    }
+
+    /**
+     * 批量操作，已经运行在事务中，默认逐个执行操作
+     */
+    @NonNull
+    protected ContentProviderResult[] doApplyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        return super.applyBatch(operations);
+    }
+
+    @Nullable
+    private ITransactionDatabaseOperation beginBatch() {
+        // 打开数据库或开启事务失败时不会调用endBatch，depth只能在成功之后增加
+        final IDatabaseContext databaseContext = getDatabaseContext();
+        final IDatabaseOperation databaseOperation = databaseContext == null ? null
+                : databaseContext.getDatabase(true);
+        ITransactionDatabaseOperation database = null;
+        if (databaseOperation instanceof ITransactionDatabaseOperation) {
+            database = (ITransactionDatabaseOperation) databaseOperation;
+            database.beginTransaction();
+        }
+        mPendingNotification.get().depth++;
+        return database;
+    }
+
+    private void endBatch(@Nullable ITransactionDatabaseOperation database, boolean successful) {
+        try {
+            if (database != null) {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            successful = false;
+            throw e;
+        } finally {
+            final PendingNotification notification = mPendingNotification.get();
+            notification.depth--;
+            if (!successful) {
+                notification.failed = true;
+            }
+            if (notification.depth == 0) {
+                final ArrayList<Uri> uris = new ArrayList<>(notification.uris);
+                final boolean failed = notification.failed;
+                notification.uris.clear();
+                notification.failed = false;
+                if (!failed) {
+                    for (Uri uri : uris) {
+                        notifyChange(uri);
+                    }
+                }
+            }
+        }
     }
 
     protected final ContentResolver getContentResolver() {
@@ -84,4 +348,12 @@ public abstract class BaseContentProvider extends ContentProvider {
     protected abstract int doUpdate(@NonNull Uri uri, @Nullable ContentValues contentValues,
                                   @Nullable String selection, @Nullable String[] selectionArgs);
 
+    /**
+     * 当前线程上批量操作中等待发送的通知
+     */
+    private static class PendingNotification {
+        private final LinkedHashSet<Uri> uris = new LinkedHashSet<>();
+        private int depth;
+        private boolean failed;
+    }
 }
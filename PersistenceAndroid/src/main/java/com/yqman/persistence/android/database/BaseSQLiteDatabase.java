@@ -19,17 +19,23 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 /**
  * Created by manyongqiang on 2017/12/15.
  * 使用原生SQLite的实现类
  */
 
-public abstract class BaseSQLiteDatabase implements IDatabaseContext {
+public abstract class BaseSQLiteDatabase implements IManagedDatabaseContext {
 
-    private IDatabaseOperation mDatabaseOperation;
+    private ITransactionDatabaseOperation mDatabaseOperation;
     private boolean mWritable;
     private SQLDatabaseInternal mSQLDatabaseInternal;
+    private final InvalidationTracker mInvalidationTracker = new InvalidationTracker();
+    private QueryProfiler mQueryProfiler;
+    private DatabaseConfig mDatabaseConfig;
 
     public BaseSQLiteDatabase(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
         mSQLDatabaseInternal = new SQLDatabaseInternal(context, name, factory, version);
@@ -40,23 +46,90 @@ public abstract class BaseSQLiteDatabase implements IDatabaseContext {
 
     }
 
+    /**
+     * 设置后通过{@link #getDatabase(boolean)}执行的语句都会被计时，传入null关闭
+     */
+    public void setQueryProfiler(@Nullable QueryProfiler queryProfiler) {
+        synchronized(this) {
+            mQueryProfiler = queryProfiler;
+            mDatabaseOperation = null;
+            mWritable = false;
+        }
+    }
+
+    private ITransactionDatabaseOperation wrap(ITransactionDatabaseOperation databaseOperation) {
+        final QueryProfiler queryProfiler = mQueryProfiler;
+        return mInvalidationTracker.track(queryProfiler == null ? databaseOperation
+                : queryProfiler.wrap(databaseOperation));
+    }
+
+    @NonNull
+    @Override
+    public InvalidationTracker getInvalidationTracker() {
+        return mInvalidationTracker;
+    }
+
     protected boolean isEnableWriteAheadLogging() {
         return false;
     }
 
+    /**
+     * @return 打开数据库时使用的连接参数，默认只根据{@link #isEnableWriteAheadLogging()}决定是否开启WAL
+     */
+    @NonNull
+    protected DatabaseConfig onCreateDatabaseConfig() {
+        return new DatabaseConfig.Builder("default").setWriteAheadLogging(isEnableWriteAheadLogging()).build();
+    }
+
+    @NonNull
     @Override
-    public IDatabaseOperation getDatabase(boolean writable) {
+    public DatabaseConfig getDatabaseConfig() {
+        synchronized(this) {
+            if (mDatabaseConfig == null) {
+                mDatabaseConfig = onCreateDatabaseConfig();
+            }
+            return mDatabaseConfig;
+        }
+    }
+
+    @Override
+    public void applyConfig(@NonNull DatabaseConfig config) {
+        synchronized(this) {
+            mDatabaseConfig = config;
+            applyConfig(mSQLDatabaseInternal.getWritableDatabase(), config);
+        }
+    }
+
+    private static void applyConfig(SQLiteDatabase sqLiteDatabase, DatabaseConfig config) {
+        final SQLiteDatabaseOperation databaseOperation = new SQLiteDatabaseOperation(sqLiteDatabase);
+        config.applyFileFormat(databaseOperation);
+        final boolean canQueryWal = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+        if (config.isWriteAheadLogging()) {
+            if (!canQueryWal || !sqLiteDatabase.isWriteAheadLoggingEnabled()) {
+                sqLiteDatabase.enableWriteAheadLogging();
+            }
+        } else if (canQueryWal && sqLiteDatabase.isWriteAheadLoggingEnabled()) {
+            sqLiteDatabase.disableWriteAheadLogging();
+        }
+        config.applyPragmas(databaseOperation);
+    }
+
+    @Override
+    public ITransactionDatabaseOperation getDatabase(boolean writable) {
         synchronized(this) {
             if (mDatabaseOperation == null) {
                 if (writable) {
-                    mDatabaseOperation = new SQLiteDatabaseOperation(mSQLDatabaseInternal.getWritableDatabase());
+                    mDatabaseOperation = wrap(
+                            new SQLiteDatabaseOperation(mSQLDatabaseInternal.getWritableDatabase()));
                 } else {
-                    mDatabaseOperation = new SQLiteDatabaseOperation(mSQLDatabaseInternal.getReadableDatabase());
+                    mDatabaseOperation = wrap(
+                            new SQLiteDatabaseOperation(mSQLDatabaseInternal.getReadableDatabase()));
                 }
                 mWritable = writable;
             } else {
                 if (writable && !mWritable) {
-                    mDatabaseOperation = new SQLiteDatabaseOperation(mSQLDatabaseInternal.getWritableDatabase());
+                    mDatabaseOperation = wrap(
+                            new SQLiteDatabaseOperation(mSQLDatabaseInternal.getWritableDatabase()));
                     mWritable = writable;
                 }
             }
@@ -64,7 +137,7 @@ public abstract class BaseSQLiteDatabase implements IDatabaseContext {
         }
     }
 
-    private static class SQLiteDatabaseOperation implements IDatabaseOperation {
+    private static class SQLiteDatabaseOperation implements ITransactionDatabaseOperation {
         private final SQLiteDatabase mSQLiteDatabase;
 
         private SQLiteDatabaseOperation(SQLiteDatabase sqliteDatabase) {
@@ -101,6 +174,26 @@ public abstract class BaseSQLiteDatabase implements IDatabaseContext {
         public void execSQL(String sql) {
             mSQLiteDatabase.execSQL(sql);
         }
+
+        @Override
+        public void beginTransaction() {
+            mSQLiteDatabase.beginTransaction();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            mSQLiteDatabase.setTransactionSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            mSQLiteDatabase.endTransaction();
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return mSQLiteDatabase.inTransaction();
+        }
     }
 
     private class SQLDatabaseInternal extends SQLiteOpenHelper {
@@ -119,10 +212,16 @@ public abstract class BaseSQLiteDatabase implements IDatabaseContext {
             upgrade(new SQLiteDatabaseOperation(sqLiteDatabase), i, i1);
         }
 
+        @Override
+        public final void onConfigure(SQLiteDatabase sqLiteDatabase) {
+            applyConfig(sqLiteDatabase, getDatabaseConfig());
+        }
+
         @Override
         public final void onOpen(SQLiteDatabase sqLiteDatabase) {
-            if (isEnableWriteAheadLogging()) {
-                sqLiteDatabase.enableWriteAheadLogging();
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                // onConfigure在API 16之前不会被调用
+                applyConfig(sqLiteDatabase, getDatabaseConfig());
             }
             open(new SQLiteDatabaseOperation(sqLiteDatabase));
         }
@@ -15,35 +15,43 @@
 package com.yqman.persistence.android.database;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 /**
  * Created by manyongqiang on 2017/12/15.
  * 使用WCDB的基础类
  */
 
-public abstract class BaseWCDBDatabase implements IDatabaseContext {
+public abstract class BaseWCDBDatabase implements IManagedDatabaseContext {
 
-    private IDatabaseOperation mDatabaseOperation;
+    private ITransactionDatabaseOperation mDatabaseOperation;
     private boolean mWritable;
     private WCDBDatabaseInternal mWCDBDatabaseInternal;
+    private final InvalidationTracker mInvalidationTracker = new InvalidationTracker();
+    private QueryProfiler mQueryProfiler;
+    private DatabaseConfig mDatabaseConfig;
 
     public BaseWCDBDatabase(Context context, String name, int version) {
         mWCDBDatabaseInternal = new WCDBDatabaseInternal(context, name, version, this);
     }
 
     @Override
-    public IDatabaseOperation getDatabase(boolean writable) {
+    public ITransactionDatabaseOperation getDatabase(boolean writable) {
         synchronized(this) {
             if (mDatabaseOperation == null) {
                 if (writable) {
-                    mDatabaseOperation = new WCDBDatabaseInternal.WCDBDatabaseOperation(mWCDBDatabaseInternal.getWritableDatabase());
+                    mDatabaseOperation = wrap(
+                            new WCDBDatabaseInternal.WCDBDatabaseOperation(mWCDBDatabaseInternal.getWritableDatabase()));
                 } else {
-                    mDatabaseOperation = new WCDBDatabaseInternal.WCDBDatabaseOperation(mWCDBDatabaseInternal.getReadableDatabase());
+                    mDatabaseOperation = wrap(
+                            new WCDBDatabaseInternal.WCDBDatabaseOperation(mWCDBDatabaseInternal.getReadableDatabase()));
                 }
                 mWritable = writable;
             } else {
                 if (writable && !mWritable) {
-                    mDatabaseOperation = new WCDBDatabaseInternal.WCDBDatabaseOperation(mWCDBDatabaseInternal.getWritableDatabase());
+                    mDatabaseOperation = wrap(
+                            new WCDBDatabaseInternal.WCDBDatabaseOperation(mWCDBDatabaseInternal.getWritableDatabase()));
                     mWritable = writable;
                 }
             }
@@ -51,6 +59,67 @@ public abstract class BaseWCDBDatabase implements IDatabaseContext {
         }
     }
 
+    /**
+     * 设置后通过{@link #getDatabase(boolean)}执行的语句都会被计时，传入null关闭
+     */
+    public void setQueryProfiler(@Nullable QueryProfiler queryProfiler) {
+        synchronized(this) {
+            mQueryProfiler = queryProfiler;
+            mDatabaseOperation = null;
+            mWritable = false;
+        }
+    }
+
+    private ITransactionDatabaseOperation wrap(ITransactionDatabaseOperation databaseOperation) {
+        final QueryProfiler queryProfiler = mQueryProfiler;
+        return mInvalidationTracker.track(queryProfiler == null ? databaseOperation
+                : queryProfiler.wrap(databaseOperation));
+    }
+
+    @NonNull
+    @Override
+    public InvalidationTracker getInvalidationTracker() {
+        return mInvalidationTracker;
+    }
+
+    /**
+     * @return 打开数据库时使用的连接参数，默认开启WAL
+     */
+    @NonNull
+    protected DatabaseConfig onCreateDatabaseConfig() {
+        return new DatabaseConfig.Builder("default").setWriteAheadLogging(true).build();
+    }
+
+    @NonNull
+    @Override
+    public DatabaseConfig getDatabaseConfig() {
+        synchronized(this) {
+            if (mDatabaseConfig == null) {
+                mDatabaseConfig = onCreateDatabaseConfig();
+            }
+            return mDatabaseConfig;
+        }
+    }
+
+    @Override
+    public void applyConfig(@NonNull DatabaseConfig config) {
+        synchronized(this) {
+            mDatabaseConfig = config;
+            mWCDBDatabaseInternal.applyConfig(mWCDBDatabaseInternal.getWritableDatabase(), config);
+        }
+    }
+
+    /**
+     * 关闭数据库连接，之后再调用{@link #getDatabase(boolean)}会重新打开
+     */
+    public void close() {
+        synchronized(this) {
+            mWCDBDatabaseInternal.close();
+            mDatabaseOperation = null;
+            mWritable = false;
+        }
+    }
+
     @Override
     public void open(IDatabaseOperation databaseOperation) {
 
@@ -0,0 +1,231 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.database.AbstractCursor;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+/**
+ * 读取{@link CursorBlob}格式数据的只读cursor，不经过CursorWindow
+ * 描述符是文件时通过mmap按需读取，是管道时一次读入内存
+ */
+public class BlobCursor extends AbstractCursor {
+    private final ByteBuffer mBuffer;
+    private final String[] mColumnNames;
+    private final int mRowCount;
+    private final int mOffsetTablePosition;
+    private final int[] mCellOffsets;
+    private final byte[] mCellTypes;
+
+    /**
+     * @param descriptor 读取完成后会被关闭
+     */
+    public BlobCursor(@NonNull ParcelFileDescriptor descriptor) throws IOException {
+        final FileInputStream inputStream = new FileInputStream(descriptor.getFileDescriptor());
+        try {
+            if (descriptor.getStatSize() < 0) {
+                // 管道无法mmap
+                mBuffer = ByteBuffer.wrap(readFully(inputStream));
+            } else {
+                final FileChannel channel = inputStream.getChannel();
+                final long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("blob too large:" + size);
+                }
+                // 映射在channel关闭后仍然有效
+                mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        } finally {
+            inputStream.close();
+            descriptor.close();
+        }
+        if (mBuffer.limit() < 16 || mBuffer.getInt(0) != CursorBlob.MAGIC) {
+            throw new IOException("not a cursor blob");
+        }
+        if (mBuffer.getInt(4) != CursorBlob.VERSION) {
+            throw new IOException("unsupported blob version:" + mBuffer.getInt(4));
+        }
+        final int columnCount = mBuffer.getInt(8);
+        mRowCount = mBuffer.getInt(12);
+        mColumnNames = new String[columnCount];
+        int position = 16;
+        for (int i = 0; i < columnCount; i++) {
+            final int length = mBuffer.getInt(position);
+            mColumnNames[i] = decode(position + 4, length);
+            position += 4 + length;
+        }
+        mOffsetTablePosition = position;
+        mCellOffsets = new int[columnCount];
+        mCellTypes = new byte[columnCount];
+    }
+
+    private static byte[] readFully(FileInputStream inputStream) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[64 * 1024];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public int getCount() {
+        return mRowCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int position = (int) mBuffer.getLong(mOffsetTablePosition + 8 * newPosition);
+        for (int i = 0; i < mCellTypes.length; i++) {
+            final byte type = mBuffer.get(position);
+            mCellTypes[i] = type;
+            mCellOffsets[i] = position + 1;
+            position += 1 + valueLength(type, position + 1);
+        }
+        return true;
+    }
+
+    private int valueLength(byte type, int position) {
+        switch (type) {
+            case FIELD_TYPE_INTEGER:
+            case FIELD_TYPE_FLOAT:
+                return 8;
+            case FIELD_TYPE_STRING:
+            case FIELD_TYPE_BLOB:
+                return 4 + mBuffer.getInt(position);
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public int getType(int column) {
+        checkPosition();
+        return mCellTypes[column];
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getType(column) == FIELD_TYPE_NULL;
+    }
+
+    @Override
+    public String getString(int column) {
+        final int offset = mCellOffsets[column];
+        switch (getType(column)) {
+            case FIELD_TYPE_STRING:
+                return decode(offset + 4, mBuffer.getInt(offset));
+            case FIELD_TYPE_INTEGER:
+                return Long.toString(mBuffer.getLong(offset));
+            case FIELD_TYPE_FLOAT:
+                return Double.toString(mBuffer.getDouble(offset));
+            case FIELD_TYPE_BLOB:
+                throw new IllegalStateException("unable to convert BLOB to string");
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        final int offset = mCellOffsets[column];
+        switch (getType(column)) {
+            case FIELD_TYPE_STRING:
+            case FIELD_TYPE_BLOB:
+                final byte[] value = new byte[mBuffer.getInt(offset)];
+                final ByteBuffer duplicate = mBuffer.duplicate();
+                duplicate.position(offset + 4);
+                duplicate.get(value);
+                return value;
+            case FIELD_TYPE_NULL:
+                return null;
+            default:
+                throw new IllegalStateException("unable to convert number to blob");
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        final int offset = mCellOffsets[column];
+        switch (getType(column)) {
+            case FIELD_TYPE_INTEGER:
+                return mBuffer.getLong(offset);
+            case FIELD_TYPE_FLOAT:
+                return (long) mBuffer.getDouble(offset);
+            case FIELD_TYPE_STRING:
+                try {
+                    return Long.parseLong(getString(column));
+                } catch (NumberFormatException e) {
+                    return (long) getDouble(column);
+                }
+            default:
+                return 0L;
+        }
+    }
+
+    @Override
+    public double getDouble(int column) {
+        final int offset = mCellOffsets[column];
+        switch (getType(column)) {
+            case FIELD_TYPE_INTEGER:
+                return mBuffer.getLong(offset);
+            case FIELD_TYPE_FLOAT:
+                return mBuffer.getDouble(offset);
+            case FIELD_TYPE_STRING:
+                try {
+                    return Double.parseDouble(getString(column));
+                } catch (NumberFormatException e) {
+                    return 0D;
+                }
+            default:
+                return 0D;
+        }
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    private String decode(int position, int length) {
+        final ByteBuffer duplicate = mBuffer.duplicate();
+        duplicate.position(position);
+        duplicate.limit(position + length);
+        return CursorBlob.UTF_8.decode(duplicate).toString();
+    }
+}
@@ -28,6 +28,7 @@ public class CreateTableSQLBuilder {
     private static final String TAG = "CreateTableSQLBuilder";
     private String mTableName;
     private String mTableContract;
+    private boolean mWithoutRowId;
     private StringBuilder mContentBuilder;
 
     public CreateTableSQLBuilder(@NonNull String tableName) {
@@ -40,6 +41,14 @@ public class CreateTableSQLBuilder {
         return this;
     }
 
+    /**
+     * 使用WITHOUT ROWID表，要求声明PRIMARY KEY，SQLite 3.8.2以上支持
+     */
+    public CreateTableSQLBuilder setWithoutRowId(boolean withoutRowId) {
+        mWithoutRowId = withoutRowId;
+        return this;
+    }
+
     public CreateTableSQLBuilder addColumn(String columnName, String signature) {
         if (mContentBuilder.length() > 0) {
             mContentBuilder.append(",");
@@ -67,6 +76,9 @@ public class CreateTableSQLBuilder {
             builder.append(mTableContract);
         }
         builder.append(")");
+        if (mWithoutRowId) {
+            builder.append(" WITHOUT ROWID");
+        }
         String sql = builder.toString();
         Log.d(TAG, "sql:" + sql);
         return sql;
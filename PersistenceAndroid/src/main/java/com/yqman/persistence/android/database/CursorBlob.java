@@ -0,0 +1,388 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * 将查询结果序列化后通过ParcelFileDescriptor跨进程传递，避免大结果集通过CursorWindow逐窗口拷贝
+ * 序列化结果不超过{@link #MEMORY_LIMIT}时只在内存中生成，通过管道传给客户端读入内存；
+ * 超过时写入cacheDir下的临时文件(打开描述符后立即删除)，客户端直接mmap读取，
+ * 这一次写盘与读盘通常命中页缓存，但结果集较小时收益不足以抵消，所以只在大结果集时使用
+ *
+ * 文件格式：
+ * magic(int) version(int) columnCount(int) rowCount(int)
+ * columnName(int长度 + UTF-8)...
+ * rowOffset(long) * rowCount
+ * row: cell(type(byte) + value)...
+ */
+public class CursorBlob {
+    private static final String TAG = "CursorBlob";
+    static final int MAGIC = 0x43424c42;
+    static final int VERSION = 1;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String PARAM_BLOB_QUERY = "cursor_blob";
+    private static final String PARAM_PROJECTION = "cursor_blob_projection";
+    private static final String PARAM_SELECTION = "cursor_blob_selection";
+    private static final String PARAM_SELECTION_ARG = "cursor_blob_arg";
+    private static final String PARAM_SORT_ORDER = "cursor_blob_sort";
+    private static final int BUFFER_SIZE = 256 * 1024;
+    /**
+     * 超过该大小的结果改为写入临时文件
+     */
+    static final int MEMORY_LIMIT = 1024 * 1024;
+
+    /**
+     * 查询数据，provider开启了{@link BaseContentProvider#isBlobQueryEnabled()}时通过共享文件返回结果，
+     * 否则退化为普通查询
+     */
+    @Nullable
+    public static Cursor query(@NonNull ContentResolver contentResolver, @NonNull Uri uri,
+                               @Nullable String[] projection, @Nullable String selection,
+                               @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = contentResolver.openFileDescriptor(
+                    buildBlobUri(uri, projection, selection, selectionArgs, sortOrder), "r");
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "blob query not supported:" + uri);
+        } catch (UnsupportedOperationException e) {
+            Log.d(TAG, "blob query not supported:" + uri);
+        }
+        if (descriptor != null) {
+            try {
+                final BlobCursor cursor = new BlobCursor(descriptor);
+                cursor.setNotificationUri(contentResolver, uri);
+                return cursor;
+            } catch (IOException e) {
+                Log.w(TAG, "read blob failed:" + e.getMessage());
+            }
+        }
+        return contentResolver.query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    static boolean isBlobQuery(@NonNull Uri uri) {
+        return uri.getQueryParameter(PARAM_BLOB_QUERY) != null;
+    }
+
+    @NonNull
+    static Uri buildBlobUri(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                            @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        final Uri.Builder builder = uri.buildUpon().appendQueryParameter(PARAM_BLOB_QUERY, "1");
+        if (projection != null) {
+            for (String column : projection) {
+                builder.appendQueryParameter(PARAM_PROJECTION, column);
+            }
+        }
+        if (selection != null) {
+            builder.appendQueryParameter(PARAM_SELECTION, selection);
+        }
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                builder.appendQueryParameter(PARAM_SELECTION_ARG, arg);
+            }
+        }
+        if (sortOrder != null) {
+            builder.appendQueryParameter(PARAM_SORT_ORDER, sortOrder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * provider端：解析blob查询uri并执行查询，返回管道的读端或临时文件的只读描述符
+     */
+    @NonNull
+    static ParcelFileDescriptor openBlobQuery(@NonNull BaseContentProvider provider, @NonNull Uri blobUri,
+                                              @NonNull File cacheDir) throws FileNotFoundException {
+        final Uri.Builder builder = blobUri.buildUpon().clearQuery();
+        for (String name : blobUri.getQueryParameterNames()) {
+            if (name.startsWith(PARAM_BLOB_QUERY)) {
+                continue;
+            }
+            for (String value : blobUri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        final Cursor cursor = provider.query(builder.build(),
+                toArray(blobUri.getQueryParameters(PARAM_PROJECTION)),
+                blobUri.getQueryParameter(PARAM_SELECTION),
+                toArray(blobUri.getQueryParameters(PARAM_SELECTION_ARG)),
+                blobUri.getQueryParameter(PARAM_SORT_ORDER));
+        if (cursor == null) {
+            throw new FileNotFoundException("query returns null:" + blobUri);
+        }
+        final BlobOutput output = new BlobOutput(cacheDir, MEMORY_LIMIT);
+        try {
+            write(cursor, output);
+            return output.open(provider, blobUri);
+        } catch (IOException e) {
+            throw new FileNotFoundException(e.getMessage());
+        } finally {
+            cursor.close();
+            output.close();
+        }
+    }
+
+    @Nullable
+    private static String[] toArray(@NonNull List<String> values) {
+        return values.isEmpty() ? null : values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * 将cursor的全部数据写入output
+     */
+    private static void write(@NonNull Cursor cursor, @NonNull BlobOutput output) throws IOException {
+        final String[] columns = cursor.getColumnNames();
+        final int rowCount = cursor.getCount();
+        final byte[][] columnNames = new byte[columns.length][];
+        int headerSize = 16;
+        for (int i = 0; i < columns.length; i++) {
+            columnNames[i] = columns[i].getBytes(UTF_8);
+            headerSize += 4 + columnNames[i].length;
+        }
+        final long offsetTablePosition = headerSize;
+        final long[] rowOffsets = new long[rowCount];
+
+        output.putInt(MAGIC);
+        output.putInt(VERSION);
+        output.putInt(columns.length);
+        output.putInt(rowCount);
+        for (byte[] name : columnNames) {
+            output.putBytes(name);
+        }
+        output.skip(8L * rowCount);
+
+        cursor.moveToPosition(-1);
+        int row = 0;
+        while (cursor.moveToNext() && row < rowCount) {
+            rowOffsets[row++] = output.position();
+            for (int i = 0; i < columns.length; i++) {
+                final int type = cursor.getType(i);
+                output.putByte((byte) type);
+                switch (type) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        output.putLong(cursor.getLong(i));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        output.putDouble(cursor.getDouble(i));
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        output.putBytes(cursor.getString(i).getBytes(UTF_8));
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        output.putBytes(cursor.getBlob(i));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        output.flush();
+
+        final ByteBuffer offsets = ByteBuffer.allocate(8 * row);
+        for (int i = 0; i < row; i++) {
+            offsets.putLong(rowOffsets[i]);
+        }
+        offsets.flip();
+        output.writeAt(offsets, offsetTablePosition);
+        if (row != rowCount) {
+            // cursor实际行数少于getCount()，修正头部中的行数
+            final ByteBuffer count = ByteBuffer.allocate(4);
+            count.putInt(row).flip();
+            output.writeAt(count, 12);
+        }
+    }
+
+    /**
+     * 带缓冲的顺序写入，先写入内存，超过memoryLimit后把已写入的内容转存到临时文件并继续写文件
+     */
+    private static class BlobOutput implements ContentProvider.PipeDataWriter<ByteBuffer> {
+        private final File mCacheDir;
+        private final int mMemoryLimit;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long mFlushedPosition;
+        private byte[] mMemory = new byte[0];
+        private File mFile;
+        private RandomAccessFile mRandomAccessFile;
+        private FileChannel mChannel;
+
+        private BlobOutput(File cacheDir, int memoryLimit) {
+            mCacheDir = cacheDir;
+            mMemoryLimit = memoryLimit;
+        }
+
+        long position() {
+            return mFlushedPosition + mBuffer.position();
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            mBuffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            mBuffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            mBuffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            mBuffer.putDouble(value);
+        }
+
+        void putBytes(byte[] value) throws IOException {
+            putInt(value.length);
+            if (value.length > mBuffer.remaining()) {
+                flush();
+                if (value.length > mBuffer.capacity()) {
+                    writeFully(ByteBuffer.wrap(value));
+                    return;
+                }
+            }
+            mBuffer.put(value);
+        }
+
+        void skip(long length) throws IOException {
+            flush();
+            if (mChannel == null && !ensureMemory(mFlushedPosition + length)) {
+                spill();
+            }
+            mFlushedPosition += length;
+        }
+
+        void flush() throws IOException {
+            mBuffer.flip();
+            writeFully(mBuffer);
+            mBuffer.clear();
+        }
+
+        private void ensure(int length) throws IOException {
+            if (mBuffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            if (mChannel == null && !ensureMemory(mFlushedPosition + buffer.remaining())) {
+                spill();
+            }
+            final int length = buffer.remaining();
+            writeAt(buffer, mFlushedPosition);
+            mFlushedPosition += length;
+        }
+
+        /**
+         * 覆盖写入已经写过(或跳过)的位置
+         */
+        void writeAt(ByteBuffer buffer, long position) throws IOException {
+            if (mChannel == null) {
+                buffer.get(mMemory, (int) position, buffer.remaining());
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                position += mChannel.write(buffer, position);
+            }
+        }
+
+        /**
+         * @return 超过memoryLimit时返回false
+         */
+        private boolean ensureMemory(long size) {
+            if (size > mMemoryLimit) {
+                return false;
+            }
+            if (size > mMemory.length) {
+                mMemory = Arrays.copyOf(mMemory, (int) Math.min(mMemoryLimit, Math.max(size, 2L * mMemory.length)));
+            }
+            return true;
+        }
+
+        private void spill() throws IOException {
+            mFile = File.createTempFile("cursor", ".blob", mCacheDir);
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+            mChannel = mRandomAccessFile.getChannel();
+            writeAt(ByteBuffer.wrap(mMemory, 0, (int) mFlushedPosition), 0);
+            mMemory = null;
+        }
+
+        /**
+         * 返回给客户端的描述符，写入临时文件时为只读文件，否则为管道的读端
+         */
+        ParcelFileDescriptor open(ContentProvider provider, Uri uri) throws IOException {
+            flush();
+            if (mChannel != null) {
+                return ParcelFileDescriptor.open(mFile, ParcelFileDescriptor.MODE_READ_ONLY);
+            }
+            return provider.openPipeHelper(uri, null, null, ByteBuffer.wrap(mMemory, 0, (int) mFlushedPosition), this);
+        }
+
+        @Override
+        public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri, @Nullable String mimeType,
+                                    @Nullable Bundle opts, @NonNull ByteBuffer data) {
+            final OutputStream outputStream = new ParcelFileDescriptor.AutoCloseOutputStream(output);
+            try {
+                outputStream.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            } catch (IOException e) {
+                // 客户端提前关闭了读端
+                Log.w(TAG, "write blob pipe failed:" + e.getMessage());
+            } finally {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "close blob pipe failed:" + e.getMessage());
+                }
+            }
+        }
+
+        void close() {
+            if (mRandomAccessFile != null) {
+                try {
+                    mRandomAccessFile.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "close blob failed:" + e.getMessage());
+                }
+            }
+            // 已经打开的描述符在文件删除后仍然有效
+            if (mFile != null && !mFile.delete()) {
+                Log.w(TAG, "delete blob failed:" + mFile);
+            }
+        }
+    }
+}
@@ -18,7 +18,9 @@ package com.yqman.persistence.android.database;
 import static android.arch.lifecycle.Lifecycle.State.DESTROYED;
 
 import java.lang.ref.WeakReference;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.arch.lifecycle.GenericLifecycleObserver;
 import android.arch.lifecycle.Lifecycle;
@@ -31,6 +33,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContentResolverCompat;
@@ -40,26 +43,49 @@ import android.support.v4.content.ContentResolverCompat;
  */
 public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLifecycleObserver {
     private final @NonNull QueryInfo mQueryInfo;
-    private final @NonNull LoadTask mLoadTask;
     private final @NonNull IParser<T> mParser;
     private final @NonNull CursorContentObserver mContentObserver;
+    private final @Nullable InvalidationTracker mInvalidationTracker;
+    private final @Nullable TableObserver mTableObserver;
     private @Nullable Cursor currentCursor = null;
+    private int mQueryGeneration = 0;
     private final ConcurrentLinkedQueue<LifecycleOwner> mLifecycleOwners = new ConcurrentLinkedQueue<>();
     private final Boolean mIsNeedObserver;
     public CursorLiveData(@NonNull Context context,
                            @NonNull Uri uri, @Nullable String[] projection,
                            @Nullable String selection, @Nullable String[] selectionArgs,
                            @Nullable String sortOrder, @NonNull IParser<T> parser, Boolean isNeedObserver) {
-        mQueryInfo = new QueryInfo(context.getApplicationContext(),
+        mQueryInfo = new ContentQueryInfo(context.getApplicationContext(),
                 uri, projection, selection, selectionArgs, sortOrder);
-        mLoadTask = new LoadTask(this);
         mContentObserver = new CursorContentObserver(this);
+        mInvalidationTracker = null;
+        mTableObserver = null;
         mIsNeedObserver = isNeedObserver;
         mParser = parser;
     }
 
-    private void setCursor(@Nullable Cursor cursor) {
-        if (mLifecycleOwners.isEmpty()) { // 解决已经没有观察者时，异步查询结果回来时，已经没有观察者，此时忽略该查询结果
+    /**
+     * 直接查询数据库，通过{@link IManagedDatabaseContext#getInvalidationTracker()}感知表变化，不经过ContentResolver
+     */
+    public CursorLiveData(@NonNull IManagedDatabaseContext databaseContext,
+                          @NonNull String table, @Nullable String[] projection,
+                          @Nullable String selection, @Nullable String[] selectionArgs,
+                          @Nullable String sortOrder, @NonNull IParser<T> parser) {
+        mQueryInfo = new DatabaseQueryInfo(databaseContext, table, projection, selection, selectionArgs, sortOrder);
+        mContentObserver = new CursorContentObserver(this);
+        mInvalidationTracker = databaseContext.getInvalidationTracker();
+        mTableObserver = new TableObserver(this, table);
+        mIsNeedObserver = true;
+        mParser = parser;
+    }
+
+    private void setCursor(int generation, @Nullable Cursor cursor) {
+        // 解决已经没有观察者时，异步查询结果回来时，已经没有观察者，此时忽略该查询结果
+        // 多次查询并发时只使用最后一次查询的结果
+        if (mLifecycleOwners.isEmpty() || generation != mQueryGeneration) {
+            if (cursor != null && !cursor.isClosed()) {
+                cursor.close();
+            }
             return;
         }
         setValue(mParser.parse(cursor));
@@ -75,7 +101,7 @@ public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLife
                 oldCursor.close();
             }
         }
-        if (cursor != null && mIsNeedObserver) {
+        if (cursor != null && mIsNeedObserver && mInvalidationTracker == null) {
             cursor.registerContentObserver(mContentObserver);
         }
     }
@@ -84,6 +110,9 @@ public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLife
     public void observe(@NonNull LifecycleOwner owner, @NonNull Observer<T> observer) {
         if (mLifecycleOwners.isEmpty()) {
             mLifecycleOwners.add(owner);
+            if (mInvalidationTracker != null && mTableObserver != null) {
+                mInvalidationTracker.addObserver(mTableObserver);
+            }
             startQuery();
         } else {
             mLifecycleOwners.add(owner);
@@ -93,7 +122,8 @@ public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLife
     }
 
     private void startQuery() {
-        mLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mQueryInfo);
+        mQueryGeneration++;
+        new LoadTask(this, mQueryGeneration).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mQueryInfo);
     }
 
     @Override
@@ -102,6 +132,9 @@ public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLife
             mLifecycleOwners.remove(source);
         }
         if (mLifecycleOwners.isEmpty()) {
+            if (mInvalidationTracker != null && mTableObserver != null) {
+                mInvalidationTracker.removeObserver(mTableObserver);
+            }
             updateCursor(null);
         }
     }
@@ -109,7 +142,14 @@ public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLife
     /**
      * 查询信息
      */
-    private static class QueryInfo {
+    private interface QueryInfo {
+        Cursor query();
+    }
+
+    /**
+     * 通过ContentResolver查询
+     */
+    private static class ContentQueryInfo implements QueryInfo {
         private final @NonNull Context context;
         private final @NonNull Uri uri;
         private final String[] projection;
@@ -117,9 +157,9 @@ public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLife
         private final String[] selectionArgs;
         private final String sortOrder;
 
-        private QueryInfo( @NonNull Context context,
-                          @NonNull Uri uri, String[] projection, String selection,
-                          String[] selectionArgs, String sortOrder) {
+        private ContentQueryInfo(@NonNull Context context,
+                                 @NonNull Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
             this.uri = uri;
             this.projection = projection;
             this.selection = selection;
@@ -128,6 +168,45 @@ public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLife
             this.context = context;
         }
 
+        @Override
+        public Cursor query() {
+            return ContentResolverCompat.query(context.getContentResolver(),
+                    uri, projection, selection, selectionArgs, sortOrder, null);
+        }
+    }
+
+    /**
+     * 直接查询数据库
+     */
+    private static class DatabaseQueryInfo implements QueryInfo {
+        private final @NonNull IDatabaseContext databaseContext;
+        private final @NonNull String table;
+        private final String[] projection;
+        private final String selection;
+        private final String[] selectionArgs;
+        private final String sortOrder;
+
+        private DatabaseQueryInfo(@NonNull IDatabaseContext databaseContext,
+                                  @NonNull String table, String[] projection, String selection,
+                                  String[] selectionArgs, String sortOrder) {
+            this.databaseContext = databaseContext;
+            this.table = table;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public Cursor query() {
+            final Cursor cursor = databaseContext.getDatabase(false).query(table, projection, selection,
+                    selectionArgs, null, null, sortOrder);
+            if (cursor != null) {
+                // 在后台线程填充CursorWindow，避免在主线程解析时才执行查询
+                cursor.getCount();
+            }
+            return cursor;
+        }
     }
 
     /**
@@ -135,24 +214,25 @@ public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLife
      */
     private static class LoadTask extends AsyncTask<QueryInfo, Void, Cursor> {
         private final WeakReference<CursorLiveData> mLiveData;
+        private final int mGeneration;
 
-        private LoadTask(CursorLiveData liveData) {
+        private LoadTask(CursorLiveData liveData, int generation) {
             mLiveData = new WeakReference<CursorLiveData>(liveData);
+            mGeneration = generation;
         }
 
         @Override
         protected Cursor doInBackground(QueryInfo... queryInfos) {
-            final QueryInfo queryInfo = queryInfos[0];
-            return ContentResolverCompat.query(queryInfo.context.getContentResolver(),
-                    queryInfo.uri, queryInfo.projection, queryInfo.selection,
-                    queryInfo.selectionArgs, queryInfo.sortOrder, null);
+            return queryInfos[0].query();
         }
 
         @Override
         protected void onPostExecute(Cursor cursor) {
             final CursorLiveData liveData = mLiveData.get();
             if (liveData != null) {
-                liveData.setCursor(cursor);
+                liveData.setCursor(mGeneration, cursor);
+            } else if (cursor != null) {
+                cursor.close();
             }
         }
     }
@@ -181,6 +261,44 @@ public class CursorLiveData<T> extends MutableLiveData<T> implements GenericLife
             }
         }
     }
+
+    /**
+     * 表变化监听，同一轮主线程消息内的多次变化合并为一次查询
+     */
+    private static class TableObserver implements InvalidationTracker.IObserver, Runnable {
+        private final WeakReference<CursorLiveData> mLiveData;
+        private final String[] mTables;
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        private final AtomicBoolean mPending = new AtomicBoolean();
+
+        private TableObserver(CursorLiveData liveData, String table) {
+            mLiveData = new WeakReference<CursorLiveData>(liveData);
+            mTables = new String[] {table};
+        }
+
+        @Nullable
+        @Override
+        public String[] getTables() {
+            return mTables;
+        }
+
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            if (mPending.compareAndSet(false, true)) {
+                mMainHandler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            mPending.set(false);
+            final CursorLiveData liveData = mLiveData.get();
+            if (liveData != null && !liveData.mLifecycleOwners.isEmpty()) {
+                liveData.startQuery();
+            }
+        }
+    }
+
     /**
      * cursor解析器
      */
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 按行解析cursor的解析器
+ * 列下标在每个cursor上只解析一次，子类通过列的声明顺序读取数据，基本类型读取不会装箱
+ * 非线程安全，同一个mapper不要同时在多个线程上使用
+ *
+ * @param <T> 行数据类型
+ */
+public abstract class CursorRowMapper<T> implements CursorLiveData.IParser<T> {
+    private final String[] mColumns;
+    private final int[] mIndices;
+    private final Row mRow = new Row();
+    private Cursor mResolvedCursor;
+
+    /**
+     * @param columns 需要读取的列，通常直接使用{@link BaseContract}中声明的常量
+     */
+    protected CursorRowMapper(@NonNull String... columns) {
+        mColumns = columns;
+        mIndices = new int[columns.length];
+    }
+
+    /**
+     * @return 声明的列，可以直接作为查询的projection
+     */
+    @NonNull
+    public final String[] getProjection() {
+        return mColumns.clone();
+    }
+
+    /**
+     * 解析cursor当前所在行
+     */
+    @Override
+    public final T parse(@Nullable Cursor cursor) {
+        if (cursor == null || cursor.isClosed()) {
+            return null;
+        }
+        resolve(cursor);
+        return map(mRow);
+    }
+
+    /**
+     * 从当前位置开始读取cursor剩余的全部行
+     */
+    @NonNull
+    public final List<T> parseAll(@Nullable Cursor cursor) {
+        final ArrayList<T> items = new ArrayList<>();
+        if (cursor == null || cursor.isClosed()) {
+            return items;
+        }
+        resolve(cursor);
+        items.ensureCapacity(Math.max(cursor.getCount() - cursor.getPosition() - 1, 0));
+        while (cursor.moveToNext()) {
+            items.add(map(mRow));
+        }
+        return items;
+    }
+
+    /**
+     * 将行解析器转换为整个cursor的解析器，可以直接给{@link CursorLiveData}使用
+     */
+    @NonNull
+    public final CursorLiveData.IParser<List<T>> asListParser() {
+        return new CursorLiveData.IParser<List<T>>() {
+            @Override
+            public List<T> parse(@Nullable Cursor cursor) {
+                if (cursor != null && !cursor.isClosed()) {
+                    cursor.moveToPosition(-1);
+                }
+                return parseAll(cursor);
+            }
+        };
+    }
+
+    /**
+     * 将当前行转换为对象
+     * @param row 当前行，只在本次调用中有效，不要持有
+     */
+    protected abstract T map(@NonNull Row row);
+
+    private void resolve(@NonNull Cursor cursor) {
+        if (mResolvedCursor == cursor) {
+            return;
+        }
+        for (int i = 0; i < mColumns.length; i++) {
+            mIndices[i] = cursor.getColumnIndex(mColumns[i]);
+        }
+        mResolvedCursor = cursor;
+        mRow.mCursor = cursor;
+    }
+
+    /**
+     * 当前行的访问入口，使用构造时声明列的顺序作为下标
+     * projection中不存在的列按null处理
+     */
+    public final class Row {
+        private Cursor mCursor;
+
+        private Row() {
+        }
+
+        public boolean has(int column) {
+            return mIndices[column] >= 0;
+        }
+
+        public boolean isNull(int column) {
+            final int index = mIndices[column];
+            return index < 0 || mCursor.isNull(index);
+        }
+
+        public String getString(int column) {
+            final int index = mIndices[column];
+            return index < 0 ? null : mCursor.getString(index);
+        }
+
+        public long getLong(int column) {
+            final int index = mIndices[column];
+            return index < 0 ? 0L : mCursor.getLong(index);
+        }
+
+        public int getInt(int column) {
+            final int index = mIndices[column];
+            return index < 0 ? 0 : mCursor.getInt(index);
+        }
+
+        public double getDouble(int column) {
+            final int index = mIndices[column];
+            return index < 0 ? 0D : mCursor.getDouble(index);
+        }
+
+        public float getFloat(int column) {
+            final int index = mIndices[column];
+            return index < 0 ? 0F : mCursor.getFloat(index);
+        }
+
+        public boolean getBoolean(int column) {
+            return getInt(column) != 0;
+        }
+
+        public byte[] getBlob(int column) {
+            final int index = mIndices[column];
+            return index < 0 ? null : mCursor.getBlob(index);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * 数据库连接参数，打开数据库时应用，也可以通过{@link IManagedDatabaseContext#applyConfig(DatabaseConfig)}在运行时切换，
+ * 例如批量导入前切换到{@link #BULK_IMPORT}，结束后切换回原来的配置
+ * 除WAL外的参数通过PRAGMA设置在写连接上，未设置的参数保持SQLite默认值
+ */
+public class DatabaseConfig {
+    private static final String TAG = "DatabaseConfig";
+    private static final int UNSET = -1;
+
+    /**
+     * 每次提交都等待数据落盘，断电也不会丢失已提交的事务
+     */
+    public static final DatabaseConfig DURABLE = new Builder("durable")
+            .setWriteAheadLogging(true)
+            .setSynchronous(Synchronous.FULL)
+            .setWalAutoCheckpoint(1000)
+            .build();
+
+    /**
+     * WAL模式下使用NORMAL同步，断电可能丢失最近的事务但不会损坏数据库，适合大多数场景
+     */
+    public static final DatabaseConfig THROUGHPUT = new Builder("throughput")
+            .setWriteAheadLogging(true)
+            .setSynchronous(Synchronous.NORMAL)
+            .setCacheSize(8 * 1024)
+            .setTempStore(TempStore.MEMORY)
+            .setWalAutoCheckpoint(1000)
+            .build();
+
+    /**
+     * 批量导入期间使用，不等待落盘、不自动checkpoint、使用更大的页缓存，
+     * 进程崩溃可能丢失导入中的数据，导入结束后应切换回其他配置
+     */
+    public static final DatabaseConfig BULK_IMPORT = new Builder("bulk-import")
+            .setWriteAheadLogging(true)
+            .setSynchronous(Synchronous.OFF)
+            .setCacheSize(32 * 1024)
+            .setTempStore(TempStore.MEMORY)
+            .setWalAutoCheckpoint(0)
+            .build();
+
+    private final String mName;
+    private final boolean mWriteAheadLogging;
+    private final Synchronous mSynchronous;
+    private final int mPageSize;
+    private final AutoVacuum mAutoVacuum;
+    private final int mCacheSizeKib;
+    private final long mMmapSize;
+    private final TempStore mTempStore;
+    private final int mWalAutoCheckpoint;
+    private final boolean mRecursiveTriggers;
+
+    private DatabaseConfig(Builder builder) {
+        mName = builder.mName;
+        mWriteAheadLogging = builder.mWriteAheadLogging;
+        mSynchronous = builder.mSynchronous;
+        mPageSize = builder.mPageSize;
+        mAutoVacuum = builder.mAutoVacuum;
+        mCacheSizeKib = builder.mCacheSizeKib;
+        mMmapSize = builder.mMmapSize;
+        mTempStore = builder.mTempStore;
+        mWalAutoCheckpoint = builder.mWalAutoCheckpoint;
+        mRecursiveTriggers = builder.mRecursiveTriggers;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return mWriteAheadLogging;
+    }
+
+    /**
+     * @return 以当前配置为基础的Builder
+     */
+    @NonNull
+    public Builder buildUpon() {
+        final Builder builder = new Builder(mName);
+        builder.mWriteAheadLogging = mWriteAheadLogging;
+        builder.mSynchronous = mSynchronous;
+        builder.mPageSize = mPageSize;
+        builder.mAutoVacuum = mAutoVacuum;
+        builder.mCacheSizeKib = mCacheSizeKib;
+        builder.mMmapSize = mMmapSize;
+        builder.mTempStore = mTempStore;
+        builder.mWalAutoCheckpoint = mWalAutoCheckpoint;
+        builder.mRecursiveTriggers = mRecursiveTriggers;
+        return builder;
+    }
+
+    /**
+     * 页大小与auto_vacuum决定文件格式，需要在开启WAL之前设置
+     */
+    void applyFileFormat(@NonNull IDatabaseOperation databaseOperation) {
+        if (mPageSize != UNSET) {
+            pragma(databaseOperation, "page_size=" + mPageSize);
+        }
+        if (mAutoVacuum != null) {
+            pragma(databaseOperation, "auto_vacuum=" + mAutoVacuum.name());
+        }
+    }
+
+    /**
+     * 执行其余的PRAGMA，需要在切换WAL之后执行，切换WAL时系统会重置synchronous
+     */
+    void applyPragmas(@NonNull IDatabaseOperation databaseOperation) {
+        if (mSynchronous != null) {
+            pragma(databaseOperation, "synchronous=" + mSynchronous.name());
+        }
+        if (mCacheSizeKib != UNSET) {
+            // 负数表示以KiB为单位，与页大小无关
+            pragma(databaseOperation, "cache_size=-" + mCacheSizeKib);
+        }
+        if (mMmapSize != UNSET) {
+            pragma(databaseOperation, "mmap_size=" + mMmapSize);
+        }
+        if (mTempStore != null) {
+            pragma(databaseOperation, "temp_store=" + mTempStore.name());
+        }
+        if (mWalAutoCheckpoint != UNSET) {
+            pragma(databaseOperation, "wal_autocheckpoint=" + mWalAutoCheckpoint);
+        }
+        if (mRecursiveTriggers) {
+            pragma(databaseOperation, "recursive_triggers=ON");
+        }
+    }
+
+    /**
+     * 部分PRAGMA会返回结果行，execSQL会因此抛出异常，统一使用rawQuery执行
+     */
+    private static void pragma(IDatabaseOperation databaseOperation, String pragma) {
+        final Cursor cursor = databaseOperation.rawQuery("PRAGMA " + pragma, null);
+        if (cursor != null) {
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+        Log.d(TAG, "PRAGMA " + pragma);
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseConfig{" + mName + ", wal=" + mWriteAheadLogging + ", synchronous=" + mSynchronous
+                + ", pageSize=" + mPageSize + ", autoVacuum=" + mAutoVacuum + ", cacheSizeKib=" + mCacheSizeKib
+                + ", mmapSize=" + mMmapSize + ", tempStore=" + mTempStore + ", walAutoCheckpoint=" + mWalAutoCheckpoint
+                + ", recursiveTriggers=" + mRecursiveTriggers + "}";
+    }
+
+    public enum Synchronous {
+        OFF, NORMAL, FULL
+    }
+
+    public enum AutoVacuum {
+        NONE, FULL, INCREMENTAL
+    }
+
+    public enum TempStore {
+        DEFAULT, FILE, MEMORY
+    }
+
+    public static class Builder {
+        private final String mName;
+        private boolean mWriteAheadLogging;
+        private Synchronous mSynchronous;
+        private int mPageSize = UNSET;
+        private AutoVacuum mAutoVacuum;
+        private int mCacheSizeKib = UNSET;
+        private long mMmapSize = UNSET;
+        private TempStore mTempStore;
+        private int mWalAutoCheckpoint = UNSET;
+        private boolean mRecursiveTriggers;
+
+        public Builder(@NonNull String name) {
+            mName = name;
+        }
+
+        public Builder setWriteAheadLogging(boolean writeAheadLogging) {
+            mWriteAheadLogging = writeAheadLogging;
+            return this;
+        }
+
+        public Builder setSynchronous(@NonNull Synchronous synchronous) {
+            mSynchronous = synchronous;
+            return this;
+        }
+
+        /**
+         * 页大小，只在建第一张表之前生效，已有数据库需要VACUUM(WAL模式下无法修改)
+         */
+        public Builder setPageSize(int pageSize) {
+            if (pageSize < 512 || pageSize > 65536 || (pageSize & (pageSize - 1)) != 0) {
+                throw new IllegalArgumentException("page size must be a power of two in [512, 65536]:" + pageSize);
+            }
+            mPageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * 空闲页的回收方式，与页大小一样只在建第一张表之前生效，
+         * 使用{@link AutoVacuum#INCREMENTAL}时由{@link DatabaseMaintenance}在空闲时回收
+         */
+        public Builder setAutoVacuum(@NonNull AutoVacuum autoVacuum) {
+            mAutoVacuum = autoVacuum;
+            return this;
+        }
+
+        /**
+         * 每个连接的页缓存大小，单位KiB
+         */
+        public Builder setCacheSize(int cacheSizeKib) {
+            mCacheSizeKib = cacheSizeKib;
+            return this;
+        }
+
+        /**
+         * 内存映射读取的最大字节数，0表示关闭
+         */
+        public Builder setMmapSize(long mmapSize) {
+            mMmapSize = mmapSize;
+            return this;
+        }
+
+        public Builder setTempStore(@NonNull TempStore tempStore) {
+            mTempStore = tempStore;
+            return this;
+        }
+
+        /**
+         * WAL达到该页数后在提交时自动checkpoint，0表示关闭自动checkpoint
+         */
+        public Builder setWalAutoCheckpoint(int pages) {
+            mWalAutoCheckpoint = pages;
+            return this;
+        }
+
+        /**
+         * 开启后ON CONFLICT REPLACE删除旧行时也会触发DELETE触发器，{@link FtsIndex}依赖该行为
+         */
+        public Builder setRecursiveTriggers(boolean recursiveTriggers) {
+            mRecursiveTriggers = recursiveTriggers;
+            return this;
+        }
+
+        public DatabaseConfig build() {
+            return new DatabaseConfig(this);
+        }
+    }
+}
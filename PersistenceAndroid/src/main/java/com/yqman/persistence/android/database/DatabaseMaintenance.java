@@ -0,0 +1,400 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * 数据库后台维护
+ * 通过{@link InvalidationTracker}统计写入，写入停止{@link #setIdleDelay(long)}之后在后台线程上执行：
+ * WAL checkpoint(超过阈值时使用TRUNCATE截断WAL文件，否则PASSIVE)，
+ * 空闲页比例超过阈值时incremental_vacuum(需要{@link DatabaseConfig.AutoVacuum#INCREMENTAL})，
+ * 表的变更行数(见{@link InvalidationTracker#getChangedRowCount(String)})超过阈值时ANALYZE并执行PRAGMA optimize
+ * 配合较大的wal_autocheckpoint使用，可以把checkpoint从写线程移到空闲时执行
+ */
+public class DatabaseMaintenance {
+    private static final String TAG = "DatabaseMaintenance";
+    private static final long DEFAULT_IDLE_DELAY_MILLIS = 5000;
+    private static final long DEFAULT_TRUNCATE_THRESHOLD_BYTES = 4 * 1024 * 1024;
+    private static final float DEFAULT_VACUUM_RATIO = 0.25f;
+    private static final int DEFAULT_ANALYZE_THRESHOLD = 1000;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final IManagedDatabaseContext mDatabaseContext;
+    private final ScheduledExecutorService mExecutor;
+    private final boolean mOwnsExecutor;
+    private final HashSet<String> mChangedTables = new HashSet<>();
+    private final HashMap<String, Long> mAnalyzedRowCounts = new HashMap<>();
+    private final InvalidationTracker.IObserver mObserver = new InvalidationTracker.IObserver() {
+        @Nullable
+        @Override
+        public String[] getTables() {
+            return null;
+        }
+
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            onTablesChanged(tables);
+        }
+    };
+    private final Runnable mIdleTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized(DatabaseMaintenance.this) {
+                mScheduledTask = null;
+                if (!mStarted) {
+                    return;
+                }
+                final long idle = SystemClock.uptimeMillis() - mLastWriteTime;
+                if (idle < mIdleDelayMillis) {
+                    // 等待期间又有写入，推迟到写入停止之后
+                    mScheduledTask = mExecutor.schedule(this, mIdleDelayMillis - idle, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            }
+            try {
+                runMaintenance();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "maintenance failed", e);
+            }
+        }
+    };
+    private long mIdleDelayMillis = DEFAULT_IDLE_DELAY_MILLIS;
+    private long mTruncateThresholdBytes = DEFAULT_TRUNCATE_THRESHOLD_BYTES;
+    private float mVacuumRatio = DEFAULT_VACUUM_RATIO;
+    private int mAnalyzeThreshold = DEFAULT_ANALYZE_THRESHOLD;
+    private IListener mListener;
+    private ScheduledFuture<?> mScheduledTask;
+    private long mLastWriteTime;
+    private boolean mStarted;
+    private boolean mStopped;
+
+    /**
+     * 使用内部创建的维护线程，{@link #stop()}时关闭，之后不能再次start
+     */
+    public DatabaseMaintenance(@NonNull IManagedDatabaseContext databaseContext) {
+        this(databaseContext, Executors.newSingleThreadScheduledExecutor(), true);
+    }
+
+    /**
+     * @param executor 由调用方负责关闭
+     */
+    public DatabaseMaintenance(@NonNull IManagedDatabaseContext databaseContext,
+                               @NonNull ScheduledExecutorService executor) {
+        this(databaseContext, executor, false);
+    }
+
+    private DatabaseMaintenance(IManagedDatabaseContext databaseContext, ScheduledExecutorService executor,
+                                boolean ownsExecutor) {
+        mDatabaseContext = databaseContext;
+        mExecutor = executor;
+        mOwnsExecutor = ownsExecutor;
+    }
+
+    /**
+     * 最后一次写入之后等待多久再执行维护
+     */
+    public DatabaseMaintenance setIdleDelay(long idleDelayMillis) {
+        mIdleDelayMillis = idleDelayMillis;
+        return this;
+    }
+
+    /**
+     * WAL文件超过该大小时使用TRUNCATE checkpoint，把WAL文件截断为0
+     */
+    public DatabaseMaintenance setTruncateThreshold(long truncateThresholdBytes) {
+        mTruncateThresholdBytes = truncateThresholdBytes;
+        return this;
+    }
+
+    /**
+     * 空闲页占总页数的比例超过该值时回收
+     */
+    public DatabaseMaintenance setVacuumRatio(float vacuumRatio) {
+        mVacuumRatio = vacuumRatio;
+        return this;
+    }
+
+    /**
+     * 表自上次ANALYZE以来变更的行数超过该值时重新ANALYZE
+     */
+    public DatabaseMaintenance setAnalyzeThreshold(int analyzeThreshold) {
+        mAnalyzeThreshold = analyzeThreshold;
+        return this;
+    }
+
+    public DatabaseMaintenance setListener(@Nullable IListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    public void start() {
+        synchronized(this) {
+            if (mStarted) {
+                return;
+            }
+            if (mStopped && mOwnsExecutor) {
+                throw new IllegalStateException("maintenance executor has been shut down");
+            }
+            mStarted = true;
+        }
+        mDatabaseContext.getInvalidationTracker().addObserver(mObserver);
+    }
+
+    /**
+     * 停止监听写入并取消等待中的维护，使用内部维护线程时同时关闭该线程，正在执行的维护会继续完成
+     */
+    public void stop() {
+        mDatabaseContext.getInvalidationTracker().removeObserver(mObserver);
+        synchronized(this) {
+            mStarted = false;
+            mStopped = true;
+            if (mScheduledTask != null) {
+                mScheduledTask.cancel(false);
+                mScheduledTask = null;
+            }
+        }
+        if (mOwnsExecutor) {
+            mExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 不等待空闲立即在后台执行一次维护
+     */
+    @NonNull
+    public Future<Report> runNow() {
+        return mExecutor.submit(new Callable<Report>() {
+            @Override
+            public Report call() {
+                return runMaintenance();
+            }
+        });
+    }
+
+    private void onTablesChanged(Set<String> tables) {
+        synchronized(this) {
+            mChangedTables.addAll(tables);
+            mLastWriteTime = SystemClock.uptimeMillis();
+            if (mStarted && mScheduledTask == null) {
+                mScheduledTask = mExecutor.schedule(mIdleTask, mIdleDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @NonNull
+    private Report runMaintenance() {
+        final long start = SystemClock.uptimeMillis();
+        final IDatabaseOperation databaseOperation = mDatabaseContext.getDatabase(true);
+        final Report report = new Report();
+        if (mDatabaseContext.getDatabaseConfig().isWriteAheadLogging()) {
+            checkpoint(databaseOperation, report);
+        }
+        vacuum(databaseOperation, report);
+        analyze(databaseOperation, report);
+        report.mDurationMillis = SystemClock.uptimeMillis() - start;
+        Log.d(TAG, report.toString());
+        final IListener listener = mListener;
+        if (listener != null) {
+            listener.onMaintenanceFinished(report);
+        }
+        return report;
+    }
+
+    private void checkpoint(IDatabaseOperation databaseOperation, Report report) {
+        final File walFile = getWalFile(databaseOperation);
+        final long walSize = walFile == null ? 0 : walFile.length();
+        final boolean truncate = walSize >= mTruncateThresholdBytes;
+        final Cursor cursor = databaseOperation.rawQuery(
+                "PRAGMA wal_checkpoint(" + (truncate ? "TRUNCATE" : "PASSIVE") + ")", null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                report.mCheckpointBusy = cursor.getInt(0) != 0;
+                report.mCheckpointedFrames = cursor.getLong(2);
+            }
+        } finally {
+            cursor.close();
+        }
+        report.mCheckpointMode = truncate ? "TRUNCATE" : "PASSIVE";
+        report.mWalBytesBefore = walSize;
+        report.mWalBytesAfter = walFile == null ? 0 : walFile.length();
+    }
+
+    private void vacuum(IDatabaseOperation databaseOperation, Report report) {
+        final long pageCount = queryLong(databaseOperation, "PRAGMA page_count");
+        final long freePages = queryLong(databaseOperation, "PRAGMA freelist_count");
+        if (pageCount <= 0 || freePages <= 0 || (float) freePages / pageCount < mVacuumRatio) {
+            return;
+        }
+        if (queryLong(databaseOperation, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            Log.d(TAG, freePages + " free pages, auto_vacuum is not incremental");
+            return;
+        }
+        // incremental_vacuum每释放一页返回一行，cursor首次移动时会遍历所有结果行
+        queryLong(databaseOperation, "PRAGMA incremental_vacuum(" + freePages + ")");
+        final long reclaimedPages = freePages - queryLong(databaseOperation, "PRAGMA freelist_count");
+        report.mReclaimedBytes = reclaimedPages * queryLong(databaseOperation, "PRAGMA page_size");
+    }
+
+    private void analyze(IDatabaseOperation databaseOperation, Report report) {
+        final InvalidationTracker tracker = mDatabaseContext.getInvalidationTracker();
+        final ArrayList<String> tables = new ArrayList<>();
+        synchronized(this) {
+            for (String table : mChangedTables) {
+                final long rowCount = tracker.getChangedRowCount(table);
+                final Long analyzedRowCount = mAnalyzedRowCounts.get(table);
+                if (rowCount - (analyzedRowCount == null ? 0 : analyzedRowCount) >= mAnalyzeThreshold) {
+                    tables.add(table);
+                    mAnalyzedRowCounts.put(table, rowCount);
+                }
+            }
+            mChangedTables.removeAll(tables);
+        }
+        for (String table : tables) {
+            databaseOperation.execSQL("ANALYZE " + table);
+        }
+        if (!tables.isEmpty()) {
+            // SQLite 3.18以下不支持，会被忽略
+            queryLong(databaseOperation, "PRAGMA optimize");
+        }
+        report.mAnalyzedTables = Collections.unmodifiableList(tables);
+    }
+
+    @Nullable
+    private static File getWalFile(IDatabaseOperation databaseOperation) {
+        final Cursor cursor = databaseOperation.rawQuery("PRAGMA database_list", null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            final int nameIndex = cursor.getColumnIndexOrThrow("name");
+            final int fileIndex = cursor.getColumnIndexOrThrow("file");
+            while (cursor.moveToNext()) {
+                final String path = cursor.getString(fileIndex);
+                if ("main".equals(cursor.getString(nameIndex)) && path != null && !path.isEmpty()) {
+                    return new File(path + "-wal");
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return null;
+    }
+
+    private static long queryLong(IDatabaseOperation databaseOperation, String sql) {
+        final Cursor cursor = databaseOperation.rawQuery(sql, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() && cursor.getColumnCount() > 0 ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 维护结束回调，在维护线程上调用
+     */
+    public interface IListener {
+        void onMaintenanceFinished(@NonNull Report report);
+    }
+
+    /**
+     * 一次维护的结果
+     */
+    public static class Report {
+        private String mCheckpointMode;
+        private boolean mCheckpointBusy;
+        private long mCheckpointedFrames;
+        private long mWalBytesBefore;
+        private long mWalBytesAfter;
+        private long mReclaimedBytes;
+        private List<String> mAnalyzedTables = Collections.emptyList();
+        private long mDurationMillis;
+
+        /**
+         * @return "PASSIVE"或"TRUNCATE"，未执行checkpoint时为null
+         */
+        @Nullable
+        public String getCheckpointMode() {
+            return mCheckpointMode;
+        }
+
+        /**
+         * @return checkpoint是否因为读写冲突未能完成
+         */
+        public boolean isCheckpointBusy() {
+            return mCheckpointBusy;
+        }
+
+        public long getCheckpointedFrames() {
+            return mCheckpointedFrames;
+        }
+
+        public long getWalBytesBefore() {
+            return mWalBytesBefore;
+        }
+
+        public long getWalBytesAfter() {
+            return mWalBytesAfter;
+        }
+
+        /**
+         * @return WAL截断与incremental_vacuum释放的磁盘空间
+         */
+        public long getReclaimedBytes() {
+            return mReclaimedBytes + Math.max(0, mWalBytesBefore - mWalBytesAfter);
+        }
+
+        @NonNull
+        public List<String> getAnalyzedTables() {
+            return mAnalyzedTables;
+        }
+
+        public long getDurationMillis() {
+            return mDurationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{checkpoint=" + mCheckpointMode + (mCheckpointBusy ? "(busy)" : "") + ", frames="
+                    + mCheckpointedFrames + ", wal=" + mWalBytesBefore + "->" + mWalBytesAfter + ", reclaimed="
+                    + getReclaimedBytes() + ", analyzed=" + mAnalyzedTables + ", duration=" + mDurationMillis
+                    + "ms}";
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 以流的方式读取{@link IDatabaseOperation#query}的结果
+ * 按订阅者的请求量逐行读取cursor，不依赖LifecycleOwner，数据在订阅者指定的Executor上回调
+ * 表发生变化(见{@link InvalidationTracker})或调用{@link #invalidate()}后所有订阅者从头重新查询
+ *
+ * @param <T> 行数据类型
+ */
+public class DatabaseQueryStream<T> {
+    private final @NonNull IManagedDatabaseContext mDatabaseContext;
+    private final @NonNull String mTable;
+    private final String[] mColumns;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mOrderBy;
+    private final @NonNull CursorLiveData.IParser<T> mParser;
+    private final CopyOnWriteArrayList<QuerySubscription> mSubscriptions = new CopyOnWriteArrayList<>();
+    private final InvalidationTracker.IObserver mTableObserver = new InvalidationTracker.IObserver() {
+        @Nullable
+        @Override
+        public String[] getTables() {
+            return new String[] {mTable};
+        }
+
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            invalidate();
+        }
+    };
+
+    /**
+     * @param parser 行解析器，每次回调时cursor已经移动到对应行，推荐使用{@link CursorRowMapper}
+     */
+    public DatabaseQueryStream(@NonNull IManagedDatabaseContext databaseContext, @NonNull String table,
+                               @Nullable String[] columns, @Nullable String selection,
+                               @Nullable String[] selectionArgs, @Nullable String orderBy,
+                               @NonNull CursorLiveData.IParser<T> parser) {
+        mDatabaseContext = databaseContext;
+        mTable = table;
+        mColumns = columns;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mOrderBy = orderBy;
+        mParser = parser;
+    }
+
+    /**
+     * 订阅查询结果，在调用{@link ISubscription#request(long)}之前不会执行查询
+     * @param executor 执行查询与回调的线程池，同一个订阅的回调保证串行
+     */
+    @NonNull
+    public ISubscription subscribe(@NonNull Executor executor, @NonNull ISubscriber<T> subscriber) {
+        final QuerySubscription subscription = new QuerySubscription(executor, subscriber);
+        mSubscriptions.add(subscription);
+        mDatabaseContext.getInvalidationTracker().addObserver(mTableObserver);
+        subscriber.onSubscribe(subscription);
+        return subscription;
+    }
+
+    /**
+     * 数据发生变化，所有订阅者丢弃当前cursor并重新查询
+     */
+    public void invalidate() {
+        for (QuerySubscription subscription : mSubscriptions) {
+            subscription.restart();
+        }
+    }
+
+    @NonNull
+    public String getTable() {
+        return mTable;
+    }
+
+    public boolean hasSubscribers() {
+        return !mSubscriptions.isEmpty();
+    }
+
+    private void removeSubscription(QuerySubscription subscription) {
+        mSubscriptions.remove(subscription);
+        if (mSubscriptions.isEmpty()) {
+            mDatabaseContext.getInvalidationTracker().removeObserver(mTableObserver);
+        }
+    }
+
+    private Cursor openCursor() {
+        return mDatabaseContext.getDatabase(false).query(mTable, mColumns, mSelection, mSelectionArgs,
+                null, null, mOrderBy);
+    }
+
+    /**
+     * 一个订阅者的状态，通过mWip保证同一时刻只有一个线程在读取cursor
+     */
+    private class QuerySubscription implements ISubscription, Runnable {
+        private final Executor mExecutor;
+        private final ISubscriber<T> mSubscriber;
+        private final AtomicLong mRequested = new AtomicLong();
+        private final AtomicInteger mWip = new AtomicInteger();
+        private final AtomicBoolean mRestart = new AtomicBoolean();
+        private volatile boolean mCancelled;
+        private Cursor mCursor;
+        private boolean mCompleted;
+
+        private QuerySubscription(Executor executor, ISubscriber<T> subscriber) {
+            mExecutor = executor;
+            mSubscriber = subscriber;
+        }
+
+        @Override
+        public void request(long count) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("request count must be positive:" + count);
+            }
+            long current;
+            long next;
+            do {
+                current = mRequested.get();
+                next = current + count;
+                if (next < 0) {
+                    next = Long.MAX_VALUE;
+                }
+            } while (!mRequested.compareAndSet(current, next));
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            removeSubscription(this);
+            schedule();
+        }
+
+        private void restart() {
+            mRestart.set(true);
+            schedule();
+        }
+
+        private void schedule() {
+            if (mWip.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // 此时mWip不为0，没有其他线程在读取cursor，结束订阅后清零，否则之后的请求都不会再被调度
+                // Executor已不可用，onError只能在当前线程回调
+                final boolean cancelled = mCancelled;
+                mCancelled = true;
+                removeSubscription(this);
+                closeCursor();
+                mWip.set(0);
+                if (!cancelled) {
+                    mSubscriber.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                if (mCancelled) {
+                    closeCursor();
+                    return;
+                }
+                if (mRestart.getAndSet(false)) {
+                    closeCursor();
+                    mCompleted = false;
+                }
+                if (!mCompleted && mRequested.get() > 0) {
+                    try {
+                        drain();
+                    } catch (RuntimeException e) {
+                        mCancelled = true;
+                        removeSubscription(this);
+                        closeCursor();
+                        mSubscriber.onError(e);
+                        return;
+                    }
+                }
+                missed = mWip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            if (mCursor == null) {
+                mCursor = openCursor();
+                mSubscriber.onQueryStart();
+                if (mCursor == null) {
+                    complete();
+                    return;
+                }
+            }
+            final long requested = mRequested.get();
+            long emitted = 0;
+            while (emitted != requested && !mCancelled && !mRestart.get()) {
+                if (!mCursor.moveToNext()) {
+                    complete();
+                    break;
+                }
+                mSubscriber.onNext(mParser.parse(mCursor));
+                emitted++;
+            }
+            if (!mCompleted && mCursor != null && mCursor.isLast()) {
+                complete();
+            }
+            if (emitted != 0 && requested != Long.MAX_VALUE) {
+                mRequested.addAndGet(-emitted);
+            }
+        }
+
+        private void complete() {
+            closeCursor();
+            mCompleted = true;
+            mSubscriber.onQueryComplete();
+        }
+
+        private void closeCursor() {
+            if (mCursor != null) {
+                if (!mCursor.isClosed()) {
+                    mCursor.close();
+                }
+                mCursor = null;
+            }
+        }
+    }
+
+    /**
+     * 订阅关系
+     */
+    public interface ISubscription {
+        /**
+         * 请求更多的行，请求量跨越重新查询继续生效
+         */
+        void request(long count);
+
+        void cancel();
+    }
+
+    /**
+     * 查询结果订阅者，所有回调都在订阅时指定的Executor上串行执行
+     */
+    public interface ISubscriber<T> {
+        void onSubscribe(@NonNull ISubscription subscription);
+
+        /**
+         * 开始一轮新的查询，之前收到的数据已经失效
+         */
+        void onQueryStart();
+
+        void onNext(T item);
+
+        /**
+         * 本轮查询的数据已经全部发送，订阅仍然有效，数据变化后会重新收到{@link #onQueryStart()}
+         */
+        void onQueryComplete();
+
+        /**
+         * 查询出错，订阅随之结束
+         */
+        void onError(@NonNull Throwable throwable);
+    }
+}
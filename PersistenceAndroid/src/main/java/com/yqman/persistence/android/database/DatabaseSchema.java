@@ -0,0 +1,312 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * 数据库结构声明
+ * {@link #create(IDatabaseOperation)}在{@link IDatabaseContext#create}中建表建索引，
+ * {@link #migrate(IDatabaseOperation)}在{@link IDatabaseContext#upgrade}中对比当前数据库结构，
+ * 生成并执行迁移语句：新增表、新增列、新增或重建声明的索引，无法直接修改的表会重建并复制数据
+ * 声明中已经不存在的表不会被删除，声明表上未声明的索引与列默认保留，
+ * 见{@link #setDropUndeclaredIndices(boolean)}与{@link #setDropUndeclaredColumns(boolean)}
+ * 全文索引在表迁移完成后创建，缺失的虚拟表或触发器(例如表被重建后)会被补齐并重建索引
+ */
+public class DatabaseSchema {
+    private static final String TAG = "DatabaseSchema";
+    private static final String REBUILD_SUFFIX = "__rebuild";
+
+    private final ArrayList<TableSchema> mTables = new ArrayList<>();
+    private final ArrayList<FtsIndex> mFtsIndices = new ArrayList<>();
+    private boolean mDropUndeclaredIndices;
+    private boolean mDropUndeclaredColumns;
+
+    public DatabaseSchema addTable(@NonNull TableSchema table) {
+        mTables.add(table);
+        return this;
+    }
+
+    public DatabaseSchema addFtsIndex(@NonNull FtsIndex ftsIndex) {
+        mFtsIndices.add(ftsIndex);
+        return this;
+    }
+
+    /**
+     * 迁移时是否删除声明表上存在但没有声明的索引，默认false
+     * 只有确认这些表上的索引全部由当前声明管理时才应打开，否则其他模块或旧版本手动创建的索引会被删除
+     */
+    public DatabaseSchema setDropUndeclaredIndices(boolean dropUndeclaredIndices) {
+        mDropUndeclaredIndices = dropUndeclaredIndices;
+        return this;
+    }
+
+    /**
+     * 迁移时是否删除声明表上存在但没有声明的列，默认false
+     * 关闭时这些列不会触发重建，其他原因重建表时按原类型保留并复制数据；打开后重建会丢弃这些列的数据
+     */
+    public DatabaseSchema setDropUndeclaredColumns(boolean dropUndeclaredColumns) {
+        mDropUndeclaredColumns = dropUndeclaredColumns;
+        return this;
+    }
+
+    public void create(@NonNull IDatabaseOperation databaseOperation) {
+        for (TableSchema table : mTables) {
+            databaseOperation.execSQL(table.createTableSql());
+            for (IndexSchema index : table.getIndices()) {
+                databaseOperation.execSQL(ifNotExists(index.createSql(table.getName())));
+            }
+        }
+        for (FtsIndex ftsIndex : mFtsIndices) {
+            ftsIndex.create(databaseOperation);
+        }
+    }
+
+    public void migrate(@NonNull IDatabaseOperation databaseOperation) {
+        for (String sql : planMigration(databaseOperation)) {
+            Log.d(TAG, "migrate:" + sql);
+            databaseOperation.execSQL(sql);
+        }
+        for (FtsIndex ftsIndex : mFtsIndices) {
+            ftsIndex.create(databaseOperation);
+        }
+    }
+
+    /**
+     * @return 从当前数据库结构迁移到声明结构需要执行的语句，不包含全文索引
+     */
+    @NonNull
+    public List<String> planMigration(@NonNull IDatabaseOperation databaseOperation) {
+        final ArrayList<String> statements = new ArrayList<>();
+        for (TableSchema table : mTables) {
+            final String liveSql = queryTableSql(databaseOperation, table.getName());
+            if (liveSql == null) {
+                statements.add(table.createTableSql());
+                for (IndexSchema index : table.getIndices()) {
+                    statements.add(index.createSql(table.getName()));
+                }
+                continue;
+            }
+            final HashMap<String, LiveColumn> liveColumns = queryColumns(databaseOperation, table.getName());
+            final ArrayList<String> addedColumns = new ArrayList<>();
+            if (needRebuild(table, liveSql, liveColumns, addedColumns)) {
+                planRebuild(table, liveColumns, statements);
+                continue;
+            }
+            for (String column : addedColumns) {
+                statements.add("ALTER TABLE " + table.getName() + " ADD COLUMN " + column + " "
+                        + table.getSignature(column));
+            }
+            planIndices(table, queryIndices(databaseOperation, table.getName()), statements);
+        }
+        return statements;
+    }
+
+    private boolean needRebuild(TableSchema table, String liveSql, HashMap<String, LiveColumn> liveColumns,
+                                List<String> addedColumns) {
+        final String normalizedLiveSql = normalize(liveSql);
+        final String normalizedSql = normalize(table.createTableSql());
+        if (normalizedLiveSql.endsWith("WITHOUTROWID") != normalizedSql.endsWith("WITHOUTROWID")) {
+            return true;
+        }
+        final String tableConstraint = table.getTableConstraint();
+        if (tableConstraint != null && !normalizedLiveSql.contains(normalize(tableConstraint))) {
+            return true;
+        }
+        final List<String> columns = table.getColumnNames();
+        if (mDropUndeclaredColumns) {
+            for (String liveColumn : liveColumns.keySet()) {
+                if (findColumn(columns, liveColumn) == null) {
+                    return true;
+                }
+            }
+        }
+        for (String column : columns) {
+            final String signature = table.getSignature(column);
+            final LiveColumn liveColumn = liveColumns.get(column.toLowerCase(Locale.US));
+            if (liveColumn == null) {
+                if (table.isPrimaryKeyColumn(column) || TableSchema.isUnique(signature)
+                        || (TableSchema.isNotNull(signature) && !TableSchema.hasDefault(signature))) {
+                    return true;
+                }
+                addedColumns.add(column);
+                continue;
+            }
+            if (!TableSchema.declaredType(signature).equals(liveColumn.type)
+                    || table.isNotNullColumn(column) != liveColumn.notNull
+                    || table.isPrimaryKeyColumn(column) != liveColumn.primaryKey) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void planRebuild(TableSchema table, HashMap<String, LiveColumn> liveColumns, List<String> statements) {
+        final String rebuildTable = table.getName() + REBUILD_SUFFIX;
+        final List<String> declaredColumns = table.getColumnNames();
+        final ArrayList<String> copiedColumns = new ArrayList<>();
+        for (String column : declaredColumns) {
+            if (liveColumns.containsKey(column.toLowerCase(Locale.US))) {
+                copiedColumns.add(column);
+            }
+        }
+        final LinkedHashMap<String, String> undeclaredColumns = new LinkedHashMap<>();
+        for (Map.Entry<String, LiveColumn> entry : liveColumns.entrySet()) {
+            if (findColumn(declaredColumns, entry.getKey()) != null) {
+                continue;
+            }
+            final LiveColumn liveColumn = entry.getValue();
+            if (mDropUndeclaredColumns) {
+                Log.w(TAG, "rebuild " + table.getName() + " drops column " + liveColumn.name);
+                continue;
+            }
+            undeclaredColumns.put(liveColumn.name, liveColumn.type + (liveColumn.notNull ? " NOT NULL" : ""));
+            copiedColumns.add(liveColumn.name);
+        }
+        statements.add("DROP TABLE IF EXISTS " + rebuildTable);
+        statements.add(table.createTableSql(rebuildTable, undeclaredColumns));
+        if (!copiedColumns.isEmpty()) {
+            final String columns = TextUtils.join(",", copiedColumns);
+            statements.add("INSERT INTO " + rebuildTable + "(" + columns + ") SELECT " + columns + " FROM "
+                    + table.getName());
+        }
+        statements.add("DROP TABLE " + table.getName());
+        statements.add("ALTER TABLE " + rebuildTable + " RENAME TO " + table.getName());
+        for (IndexSchema index : table.getIndices()) {
+            statements.add(index.createSql(table.getName()));
+        }
+    }
+
+    private void planIndices(TableSchema table, HashMap<String, String> liveIndices, List<String> statements) {
+        final HashMap<String, String> remaining = new HashMap<>(liveIndices);
+        for (IndexSchema index : table.getIndices()) {
+            final String sql = index.createSql(table.getName());
+            final String liveSql = remaining.remove(index.getName().toLowerCase(Locale.US));
+            if (liveSql == null) {
+                statements.add(sql);
+            } else if (!normalize(liveSql).equals(normalize(sql))) {
+                statements.add("DROP INDEX IF EXISTS " + index.getName());
+                statements.add(sql);
+            }
+        }
+        if (!mDropUndeclaredIndices) {
+            return;
+        }
+        for (String name : remaining.keySet()) {
+            statements.add("DROP INDEX IF EXISTS " + name);
+        }
+    }
+
+    @Nullable
+    private static String findColumn(List<String> columns, String liveColumn) {
+        for (String column : columns) {
+            if (column.equalsIgnoreCase(liveColumn)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String queryTableSql(IDatabaseOperation databaseOperation, String table) {
+        final Cursor cursor = databaseOperation.rawQuery(
+                "SELECT sql FROM sqlite_master WHERE type='table' AND name=?", new String[] {table});
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static HashMap<String, LiveColumn> queryColumns(IDatabaseOperation databaseOperation, String table) {
+        final HashMap<String, LiveColumn> columns = new LinkedHashMap<>();
+        final Cursor cursor = databaseOperation.rawQuery("PRAGMA table_info(" + table + ")", null);
+        if (cursor == null) {
+            return columns;
+        }
+        try {
+            final int nameIndex = cursor.getColumnIndexOrThrow("name");
+            final int typeIndex = cursor.getColumnIndexOrThrow("type");
+            final int notNullIndex = cursor.getColumnIndexOrThrow("notnull");
+            final int primaryKeyIndex = cursor.getColumnIndexOrThrow("pk");
+            while (cursor.moveToNext()) {
+                final LiveColumn column = new LiveColumn();
+                column.name = cursor.getString(nameIndex);
+                column.type = cursor.getString(typeIndex).toUpperCase(Locale.US);
+                column.notNull = cursor.getInt(notNullIndex) != 0;
+                column.primaryKey = cursor.getInt(primaryKeyIndex) != 0;
+                columns.put(column.name.toLowerCase(Locale.US), column);
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * @return 索引名(小写)到建索引语句，不包含约束自动生成的索引
+     */
+    private static HashMap<String, String> queryIndices(IDatabaseOperation databaseOperation, String table) {
+        final HashMap<String, String> indices = new HashMap<>();
+        final Cursor cursor = databaseOperation.rawQuery("SELECT name, sql FROM sqlite_master "
+                + "WHERE type='index' AND tbl_name=? AND sql IS NOT NULL", new String[] {table});
+        if (cursor == null) {
+            return indices;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                indices.put(cursor.getString(0).toLowerCase(Locale.US), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return indices;
+    }
+
+    private static String ifNotExists(String createIndexSql) {
+        return createIndexSql.replaceFirst("INDEX ", "INDEX IF NOT EXISTS ");
+    }
+
+    /**
+     * 去掉空白与IF NOT EXISTS并统一大小写，用于和sqlite_master中的语句比较
+     */
+    private static String normalize(String sql) {
+        return sql.toUpperCase(Locale.US).replace("IF NOT EXISTS", "").replaceAll("\\s+", "");
+    }
+
+    /**
+     * PRAGMA table_info中的列信息
+     */
+    private static class LiveColumn {
+        private String name;
+        private String type;
+        private boolean notNull;
+        private boolean primaryKey;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * 普通表的全文索引
+ * 使用外部内容(external content)的FTS虚拟表，只保存索引不保存数据，由触发器在内容表写入时同步
+ * 内容表使用ON CONFLICT REPLACE时，被替换的行不会触发DELETE触发器，
+ * 需要在{@link DatabaseConfig.Builder#setRecursiveTriggers(boolean)}中开启recursive_triggers
+ * FTS5支持按相关度排序，FTS4只能按内容表的列排序；未指定版本时优先使用FTS5
+ */
+public class FtsIndex {
+    private static final String TAG = "FtsIndex";
+
+    private final String mName;
+    private final String mContentTable;
+    private final String[] mColumns;
+    private String mContentRowId = "rowid";
+    private String mTokenizer;
+    private int[] mPrefixLengths;
+    private volatile Version mVersion;
+
+    /**
+     * @param name FTS虚拟表名
+     * @param contentTable 被索引的表
+     * @param columns 被索引的列
+     */
+    public FtsIndex(@NonNull String name, @NonNull String contentTable, @NonNull String... columns) {
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("fts index requires columns:" + name);
+        }
+        mName = name;
+        mContentTable = contentTable;
+        mColumns = columns;
+    }
+
+    /**
+     * 内容表中与FTS rowid对应的整数列，通常是INTEGER PRIMARY KEY列
+     * FTS4总是使用内容表的rowid，因此该列必须是rowid的别名
+     */
+    public FtsIndex setContentRowId(@NonNull String contentRowId) {
+        mContentRowId = contentRowId;
+        return this;
+    }
+
+    /**
+     * @param tokenizer 分词器，例如"unicode61"、"porter unicode61"，为null时使用默认的simple/unicode61
+     */
+    public FtsIndex setTokenizer(@Nullable String tokenizer) {
+        mTokenizer = tokenizer;
+        return this;
+    }
+
+    /**
+     * 为指定长度的前缀额外建立索引，加快短前缀查询，代价是索引变大
+     */
+    public FtsIndex setPrefixLengths(@Nullable int... prefixLengths) {
+        mPrefixLengths = prefixLengths;
+        return this;
+    }
+
+    /**
+     * 指定FTS版本，不指定时使用已存在的虚拟表的版本，不存在时检测是否支持FTS5
+     */
+    public FtsIndex setVersion(@Nullable Version version) {
+        mVersion = version;
+        return this;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    @NonNull
+    public String getContentTable() {
+        return mContentTable;
+    }
+
+    /**
+     * 创建虚拟表与触发器，已存在时跳过；新建时根据内容表现有数据重建索引
+     */
+    public void create(@NonNull IDatabaseOperation databaseOperation) {
+        final boolean exists = exists(databaseOperation, "table", mName);
+        final Version version = resolveVersion(databaseOperation);
+        if (!exists) {
+            databaseOperation.execSQL(createTableSql(version));
+        }
+        boolean triggersCreated = false;
+        for (String[] trigger : triggers(version)) {
+            if (!exists(databaseOperation, "trigger", trigger[0])) {
+                databaseOperation.execSQL(trigger[1]);
+                triggersCreated = true;
+            }
+        }
+        if (!exists || triggersCreated) {
+            // 新建的索引或缺失触发器期间的写入都需要重新同步
+            rebuild(databaseOperation);
+        }
+    }
+
+    /**
+     * 删除虚拟表与触发器，不影响内容表
+     */
+    public void drop(@NonNull IDatabaseOperation databaseOperation) {
+        for (String[] trigger : triggers(resolveVersion(databaseOperation))) {
+            databaseOperation.execSQL("DROP TRIGGER IF EXISTS " + trigger[0]);
+        }
+        databaseOperation.execSQL("DROP TABLE IF EXISTS " + mName);
+    }
+
+    /**
+     * 根据内容表重建全部索引，用于批量导入时关闭触发器之后或索引损坏时
+     */
+    public void rebuild(@NonNull IDatabaseOperation databaseOperation) {
+        command(databaseOperation, "rebuild");
+    }
+
+    /**
+     * 合并索引的内部段，在大量写入后执行可以加快查询
+     */
+    public void optimize(@NonNull IDatabaseOperation databaseOperation) {
+        command(databaseOperation, "optimize");
+    }
+
+    /**
+     * 全文查询，返回内容表中匹配的行
+     * @param match FTS查询表达式，可以使用{@link #buildPrefixQuery(String, Version)}构造
+     * @param columns 返回的内容表的列，为null时返回全部列
+     * @param limit 最多返回的行数，小于等于0时不限制
+     * @return FTS5按相关度排序，FTS4按rowid排序
+     */
+    @Nullable
+    public Cursor search(@NonNull IDatabaseOperation databaseOperation, @NonNull String match,
+                         @Nullable String[] columns, int limit) {
+        final Version version = resolveVersion(databaseOperation);
+        final StringBuilder sql = new StringBuilder("SELECT ");
+        if (columns == null || columns.length == 0) {
+            sql.append("c.*");
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sql.append(',');
+                }
+                sql.append("c.").append(columns[i]);
+            }
+        }
+        sql.append(" FROM ").append(mName).append(" JOIN ").append(mContentTable).append(" c ON c.")
+                .append(mContentRowId).append('=').append(mName).append(".rowid WHERE ").append(mName)
+                .append(" MATCH ?");
+        if (version == Version.FTS5) {
+            sql.append(" ORDER BY ").append(mName).append(".rank");
+        } else {
+            sql.append(" ORDER BY ").append(mName).append(".rowid");
+        }
+        if (limit > 0) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return databaseOperation.rawQuery(sql.toString(), new String[] {match});
+    }
+
+    /**
+     * 按用户输入做前缀查询，见{@link #buildPrefixQuery(String, Version)}
+     * @return 输入中没有可查询的词时返回null
+     */
+    @Nullable
+    public Cursor searchPrefix(@NonNull IDatabaseOperation databaseOperation, @NonNull String input,
+                               @Nullable String[] columns, int limit) {
+        final String match = buildPrefixQuery(input, resolveVersion(databaseOperation));
+        if (match.isEmpty()) {
+            return null;
+        }
+        return search(databaseOperation, match, columns, limit);
+    }
+
+    /**
+     * 把用户输入转换为前缀查询，每个词都作为前缀且全部需要匹配，例如"rep pd"匹配"report.pdf"
+     * 输入中的FTS语法字符会被当作普通字符
+     */
+    @NonNull
+    public static String buildPrefixQuery(@NonNull String input, @NonNull Version version) {
+        final StringBuilder query = new StringBuilder();
+        for (String token : tokenize(input)) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            if (version == Version.FTS4) {
+                query.append('"').append(token).append("*\"");
+            } else {
+                query.append('"').append(token).append("\"*");
+            }
+        }
+        return query.toString();
+    }
+
+    /**
+     * 按空白与常见分隔符拆分，与unicode61分词器的行为一致
+     */
+    @NonNull
+    private static List<String> tokenize(String input) {
+        final ArrayList<String> tokens = new ArrayList<>();
+        final int length = input.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            final boolean separator = i == length || !Character.isLetterOrDigit(input.charAt(i));
+            if (separator) {
+                if (start >= 0) {
+                    tokens.add(input.substring(start, i));
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    @NonNull
+    Version resolveVersion(@NonNull IDatabaseOperation databaseOperation) {
+        Version version = mVersion;
+        if (version != null) {
+            return version;
+        }
+        final String sql = querySql(databaseOperation, "table", mName);
+        if (sql != null) {
+            version = sql.toUpperCase(Locale.US).contains("FTS5") ? Version.FTS5 : Version.FTS4;
+        } else {
+            version = isFts5Supported(databaseOperation) ? Version.FTS5 : Version.FTS4;
+        }
+        mVersion = version;
+        return version;
+    }
+
+    /**
+     * 系统自带的SQLite通常没有编译FTS5，通过创建临时虚拟表检测
+     */
+    static boolean isFts5Supported(@NonNull IDatabaseOperation databaseOperation) {
+        try {
+            databaseOperation.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS temp.fts5_probe USING fts5(x)");
+            databaseOperation.execSQL("DROP TABLE IF EXISTS temp.fts5_probe");
+            return true;
+        } catch (RuntimeException e) {
+            Log.d(TAG, "fts5 is not supported:" + e.getMessage());
+            return false;
+        }
+    }
+
+    @NonNull
+    String createTableSql(@NonNull Version version) {
+        final StringBuilder sql = new StringBuilder("CREATE VIRTUAL TABLE IF NOT EXISTS ").append(mName)
+                .append(" USING ").append(version == Version.FTS5 ? "fts5(" : "fts4(");
+        if (version == Version.FTS4) {
+            sql.append("content=\"").append(mContentTable).append("\",");
+        }
+        sql.append(TextUtils.join(",", mColumns));
+        if (version == Version.FTS5) {
+            sql.append(",content='").append(mContentTable).append("',content_rowid='").append(mContentRowId)
+                    .append('\'');
+        }
+        if (!TextUtils.isEmpty(mTokenizer)) {
+            sql.append(version == Version.FTS5 ? ",tokenize='" + mTokenizer + "'" : ",tokenize=" + mTokenizer);
+        }
+        if (mPrefixLengths != null && mPrefixLengths.length > 0) {
+            final StringBuilder prefix = new StringBuilder();
+            for (int prefixLength : mPrefixLengths) {
+                if (prefix.length() > 0) {
+                    prefix.append(version == Version.FTS5 ? " " : ",");
+                }
+                prefix.append(prefixLength);
+            }
+            sql.append(version == Version.FTS5 ? ",prefix='" + prefix + "'" : ",prefix=\"" + prefix + "\"");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * @return 触发器名与建触发器语句
+     */
+    @NonNull
+    List<String[]> triggers(@NonNull Version version) {
+        final String columns = TextUtils.join(",", mColumns);
+        final String newValues = prefixed("new.");
+        final String oldValues = prefixed("old.");
+        final ArrayList<String[]> triggers = new ArrayList<>();
+        if (version == Version.FTS5) {
+            final String insert = "INSERT INTO " + mName + "(rowid," + columns + ") VALUES(new." + mContentRowId
+                    + "," + newValues + ");";
+            final String delete = "INSERT INTO " + mName + "(" + mName + ",rowid," + columns + ") VALUES('delete',old."
+                    + mContentRowId + "," + oldValues + ");";
+            triggers.add(trigger("ai", "AFTER INSERT", insert));
+            triggers.add(trigger("ad", "AFTER DELETE", delete));
+            triggers.add(trigger("au", "AFTER UPDATE", delete + " " + insert));
+        } else {
+            final String insert = "INSERT INTO " + mName + "(docid," + columns + ") VALUES(new.rowid," + newValues
+                    + ");";
+            final String delete = "DELETE FROM " + mName + " WHERE docid=old.rowid;";
+            triggers.add(trigger("bu", "BEFORE UPDATE", delete));
+            triggers.add(trigger("bd", "BEFORE DELETE", delete));
+            triggers.add(trigger("au", "AFTER UPDATE", insert));
+            triggers.add(trigger("ai", "AFTER INSERT", insert));
+        }
+        return triggers;
+    }
+
+    private String[] trigger(String suffix, String event, String body) {
+        final String name = mName + "_" + suffix;
+        return new String[] {name, "CREATE TRIGGER IF NOT EXISTS " + name + " " + event + " ON " + mContentTable
+                + " BEGIN " + body + " END"};
+    }
+
+    private String prefixed(String prefix) {
+        final StringBuilder builder = new StringBuilder();
+        for (String column : mColumns) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(prefix).append(column);
+        }
+        return builder.toString();
+    }
+
+    private void command(IDatabaseOperation databaseOperation, String command) {
+        databaseOperation.execSQL("INSERT INTO " + mName + "(" + mName + ") VALUES('" + command + "')");
+    }
+
+    private static boolean exists(IDatabaseOperation databaseOperation, String type, String name) {
+        return querySql(databaseOperation, type, name) != null;
+    }
+
+    @Nullable
+    private static String querySql(IDatabaseOperation databaseOperation, String type, String name) {
+        final Cursor cursor = databaseOperation.rawQuery("SELECT sql FROM sqlite_master WHERE type=? AND name=?",
+                new String[] {type, name});
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public enum Version {
+        FTS4, FTS5
+    }
+}
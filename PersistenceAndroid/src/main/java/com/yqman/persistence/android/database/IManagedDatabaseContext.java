@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yqman.persistence.android.database;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 由本库管理连接的数据库：支持事务，写操作的表变更可以被观察，连接参数可以在运行时切换
+ * {@link BaseWCDBDatabase}和{@link BaseSQLiteDatabase}实现了该接口，
+ * 只实现{@link IDatabaseContext}的数据库不受影响
+ */
+public interface IManagedDatabaseContext extends IDatabaseContext {
+
+    @Override
+    ITransactionDatabaseOperation getDatabase(boolean writable);
+
+    /**
+     * @return 通过{@link #getDatabase(boolean)}执行的写操作的进程内变更通知
+     */
+    @NonNull
+    InvalidationTracker getInvalidationTracker();
+
+    /**
+     * @return 当前使用的连接参数
+     */
+    @NonNull
+    DatabaseConfig getDatabaseConfig();
+
+    /**
+     * 运行时切换连接参数，不能在事务中调用
+     */
+    void applyConfig(@NonNull DatabaseConfig config);
+}
@@ -0,0 +1,29 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yqman.persistence.android.database;
+
+/**
+ * 支持事务的数据库操作，用法与SQLiteDatabase的同名方法一致
+ * {@link IManagedDatabaseContext#getDatabase(boolean)}返回该类型
+ */
+public interface ITransactionDatabaseOperation extends IDatabaseOperation {
+
+    void beginTransaction();
+
+    void setTransactionSuccessful();
+
+    void endTransaction();
+
+    boolean inTransaction();
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+/**
+ * 索引声明
+ * 查询只用到索引中的列时SQLite直接读取索引(覆盖索引)，可以把查询需要的列依次加到索引末尾
+ */
+public class IndexSchema {
+    private final String mName;
+    private final String[] mColumns;
+    private boolean mUnique;
+    private String mWhere;
+
+    /**
+     * @param columns 索引列，可以带排序或COLLATE，例如"name COLLATE NOCASE"、"mtime DESC"
+     */
+    public IndexSchema(@NonNull String name, @NonNull String... columns) {
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("index requires columns:" + name);
+        }
+        mName = name;
+        mColumns = columns;
+    }
+
+    public IndexSchema setUnique(boolean unique) {
+        mUnique = unique;
+        return this;
+    }
+
+    /**
+     * 部分索引，只索引满足条件的行，SQLite 3.8.0以上支持
+     */
+    public IndexSchema setWhere(@Nullable String where) {
+        mWhere = where;
+        return this;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return 与sqlite_master中记录格式一致的建索引语句
+     */
+    @NonNull
+    String createSql(@NonNull String table) {
+        final StringBuilder builder = new StringBuilder("CREATE ");
+        if (mUnique) {
+            builder.append("UNIQUE ");
+        }
+        builder.append("INDEX ").append(mName).append(" ON ").append(table).append("(")
+                .append(TextUtils.join(",", mColumns)).append(")");
+        if (!TextUtils.isEmpty(mWhere)) {
+            builder.append(" WHERE ").append(mWhere);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 进程内的表变更通知
+ * 记录通过{@link IManagedDatabaseContext#getDatabase(boolean)}执行的写操作涉及的表，
+ * 事务中的变更在事务成功结束时合并为一次通知，失败的事务不通知
+ * 同时按表累计已提交的变更行数，见{@link #getChangedRowCount(String)}
+ */
+public class InvalidationTracker {
+    private static final Pattern MODIFY_TABLE_PATTERN = Pattern.compile(
+            "^\\s*(?:(?:INSERT|REPLACE)(?:\\s+OR\\s+\\w+)?\\s+INTO|UPDATE(?:\\s+OR\\s+\\w+)?|DELETE\\s+FROM"
+                    + "|DROP\\s+TABLE(?:\\s+IF\\s+EXISTS)?|ALTER\\s+TABLE)\\s+([^\\s(]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final CopyOnWriteArrayList<IObserver> mObservers = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, AtomicLong> mChangedRows = new ConcurrentHashMap<>();
+    private final ThreadLocal<PendingTransaction> mPendingTransaction = new ThreadLocal<PendingTransaction>() {
+        @Override
+        protected PendingTransaction initialValue() {
+            return new PendingTransaction();
+        }
+    };
+
+    public void addObserver(@NonNull IObserver observer) {
+        mObservers.addIfAbsent(observer);
+    }
+
+    public void removeObserver(@NonNull IObserver observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * @return 表自创建本对象以来已提交的变更行数，insert/update/delete按实际影响的行数计，
+     * execSQL执行的写语句拿不到行数按1计，{@link #notifyTablesChanged(String...)}不计入
+     */
+    public long getChangedRowCount(@NonNull String table) {
+        final AtomicLong count = mChangedRows.get(normalize(table));
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * 手动通知表发生变化，用于追踪不到的写操作，例如直接在其他连接上执行的语句
+     */
+    public void notifyTablesChanged(@NonNull String... tables) {
+        final HashSet<String> changedTables = new HashSet<>();
+        for (String table : tables) {
+            changedTables.add(normalize(table));
+        }
+        dispatch(changedTables);
+    }
+
+    /**
+     * 包装数据库操作，记录写操作涉及的表
+     */
+    @NonNull
+    ITransactionDatabaseOperation track(@NonNull ITransactionDatabaseOperation databaseOperation) {
+        return new TrackingDatabaseOperation(databaseOperation, this);
+    }
+
+    private void onTableModified(@Nullable String table, int rows) {
+        if (table == null) {
+            return;
+        }
+        final String name = normalize(table);
+        final PendingTransaction transaction = mPendingTransaction.get();
+        if (transaction.depth > 0) {
+            final Integer pending = transaction.rows.get(name);
+            transaction.rows.put(name, pending == null ? rows : pending + rows);
+        } else {
+            addChangedRows(name, rows);
+            dispatch(Collections.singleton(name));
+        }
+    }
+
+    private void addChangedRows(String table, long rows) {
+        AtomicLong count = mChangedRows.get(table);
+        if (count == null) {
+            final AtomicLong created = new AtomicLong();
+            count = mChangedRows.putIfAbsent(table, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.addAndGet(rows);
+    }
+
+    private void onBeginTransaction() {
+        final PendingTransaction transaction = mPendingTransaction.get();
+        if (transaction.depth == 0) {
+            transaction.failed = false;
+        }
+        transaction.depth++;
+        transaction.successful = false;
+    }
+
+    private void onTransactionSuccessful() {
+        mPendingTransaction.get().successful = true;
+    }
+
+    private void onEndTransaction(boolean ended) {
+        final PendingTransaction transaction = mPendingTransaction.get();
+        if (transaction.depth == 0) {
+            return;
+        }
+        if (!ended || !transaction.successful) {
+            transaction.failed = true;
+        }
+        transaction.successful = false;
+        transaction.depth--;
+        if (transaction.depth == 0) {
+            final HashMap<String, Integer> rows = new HashMap<>(transaction.rows);
+            transaction.rows.clear();
+            if (!transaction.failed && !rows.isEmpty()) {
+                for (Map.Entry<String, Integer> entry : rows.entrySet()) {
+                    addChangedRows(entry.getKey(), entry.getValue());
+                }
+                dispatch(new HashSet<>(rows.keySet()));
+            }
+        }
+    }
+
+    private void dispatch(@NonNull Set<String> tables) {
+        for (IObserver observer : mObservers) {
+            final String[] observedTables = observer.getTables();
+            if (observedTables == null) {
+                observer.onInvalidated(tables);
+                continue;
+            }
+            HashSet<String> matchedTables = null;
+            for (String observedTable : observedTables) {
+                final String table = normalize(observedTable);
+                if (tables.contains(table)) {
+                    if (matchedTables == null) {
+                        matchedTables = new HashSet<>();
+                    }
+                    matchedTables.add(table);
+                }
+            }
+            if (matchedTables != null) {
+                observer.onInvalidated(matchedTables);
+            }
+        }
+    }
+
+    private static String normalize(@NonNull String table) {
+        return table.toLowerCase(Locale.US);
+    }
+
+    /**
+     * 从写语句中解析出表名，无法识别的语句返回null
+     */
+    @Nullable
+    static String parseModifiedTable(@Nullable String sql) {
+        if (sql == null) {
+            return null;
+        }
+        final Matcher matcher = MODIFY_TABLE_PATTERN.matcher(sql);
+        if (!matcher.find()) {
+            return null;
+        }
+        String table = matcher.group(1);
+        final int dot = table.lastIndexOf('.');
+        if (dot >= 0) {
+            table = table.substring(dot + 1);
+        }
+        if (table.length() > 1) {
+            final char first = table.charAt(0);
+            if (first == '"' || first == '`' || first == '[' || first == '\'') {
+                table = table.substring(1, table.length() - 1);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 当前线程上尚未结束的事务
+     */
+    private static class PendingTransaction {
+        private final HashMap<String, Integer> rows = new HashMap<>();
+        private int depth;
+        private boolean successful;
+        private boolean failed;
+    }
+
+    /**
+     * 表变更观察者，回调在执行写操作(或提交事务)的线程上
+     */
+    public interface IObserver {
+        /**
+         * @return 关注的表，返回null关注所有表
+         */
+        @Nullable
+        String[] getTables();
+
+        /**
+         * @param tables 发生变化的表，表名统一为小写
+         */
+        void onInvalidated(@NonNull Set<String> tables);
+    }
+
+    private static class TrackingDatabaseOperation implements ITransactionDatabaseOperation {
+        private final ITransactionDatabaseOperation mDatabaseOperation;
+        private final InvalidationTracker mTracker;
+
+        private TrackingDatabaseOperation(ITransactionDatabaseOperation databaseOperation,
+                                          InvalidationTracker tracker) {
+            mDatabaseOperation = databaseOperation;
+            mTracker = tracker;
+        }
+
+        @Override
+        public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                            String groupBy, String having, String orderBy) {
+            return mDatabaseOperation.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
+        }
+
+        @Override
+        public long insert(String table, String nullColumnHack, ContentValues values) {
+            final long rowId = mDatabaseOperation.insert(table, nullColumnHack, values);
+            if (rowId != -1) {
+                mTracker.onTableModified(table, 1);
+            }
+            return rowId;
+        }
+
+        @Override
+        public int delete(String table, String whereClause, String[] whereArgs) {
+            final int count = mDatabaseOperation.delete(table, whereClause, whereArgs);
+            if (count > 0) {
+                mTracker.onTableModified(table, count);
+            }
+            return count;
+        }
+
+        @Override
+        public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+            final int count = mDatabaseOperation.update(table, values, whereClause, whereArgs);
+            if (count > 0) {
+                mTracker.onTableModified(table, count);
+            }
+            return count;
+        }
+
+        @Override
+        public Cursor rawQuery(String sql, String[] selectionArgs) {
+            return mDatabaseOperation.rawQuery(sql, selectionArgs);
+        }
+
+        @Override
+        public void execSQL(String sql) {
+            mDatabaseOperation.execSQL(sql);
+            mTracker.onTableModified(parseModifiedTable(sql), 1);
+        }
+
+        @Override
+        public void beginTransaction() {
+            mDatabaseOperation.beginTransaction();
+            mTracker.onBeginTransaction();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            mDatabaseOperation.setTransactionSuccessful();
+            mTracker.onTransactionSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            boolean ended = false;
+            try {
+                mDatabaseOperation.endTransaction();
+                ended = true;
+            } finally {
+                mTracker.onEndTransaction(ended);
+            }
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return mDatabaseOperation.inTransaction();
+        }
+    }
+}
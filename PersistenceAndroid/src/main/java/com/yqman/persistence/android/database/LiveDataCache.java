@@ -20,68 +20,284 @@ import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import android.arch.lifecycle.LifecycleOwner;
 import android.arch.lifecycle.MutableLiveData;
 import android.arch.lifecycle.Observer;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 /**
  * 提供LiveData缓存的工具，提供给Repository使用
+ * 按访问顺序淘汰没有观察者的LiveData，支持数量、权重与空闲时间限制
+ * 被淘汰LiveData的值会保留一段时间，重新获取同一个key时直接恢复，避免重新加载
  * @param <T>
  */
 public class LiveDataCache<T> {
+    private static final int DEFAULT_MAX_SIZE = 5;
+    private static final long EXPIRE_CHECK_INTERVAL = 1000L;
+
     private final int mMaxLiveDataSize;
-    private LinkedHashMap<String, MutableLiveData<T>> mLiveData = new LinkedHashMap<>();
-    private Lock mLock = new ReentrantLock();
+    private final long mMaxWeight;
+    private final IWeigher<T> mWeigher;
+    private final long mIdleTimeout;
+    private final int mMaxRetainedSize;
+    private final LinkedHashMap<String, CacheLiveData> mLiveData = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, T> mRetainedValues = new LinkedHashMap<>(16, 0.75f, true);
+    private final Lock mLock = new ReentrantLock();
+    private long mTotalWeight;
+    private long mLastExpireCheckTime;
+
     public LiveDataCache() {
-        this(5);
+        this(DEFAULT_MAX_SIZE);
     }
 
     public LiveDataCache(int maxLiveDataSize) {
+        this(maxLiveDataSize, Long.MAX_VALUE, null, 0, 0);
+    }
+
+    private LiveDataCache(int maxLiveDataSize, long maxWeight, IWeigher<T> weigher, long idleTimeout,
+                          int maxRetainedSize) {
         mMaxLiveDataSize = maxLiveDataSize;
+        mMaxWeight = maxWeight;
+        mWeigher = weigher;
+        mIdleTimeout = idleTimeout;
+        mMaxRetainedSize = maxRetainedSize;
     }
 
     public MutableLiveData<T> getCache(String key) {
         mLock.lock();
-        checkLiveDataCache();
-        MutableLiveData<T> liveData;
-        if (mLiveData.containsKey(key)) {
-            liveData = mLiveData.get(key);
-        } else {
-            liveData = new CacheLiveData();
-            mLiveData.put(key, liveData);
-        }
-        mLock.unlock();
-        return liveData;
+        try {
+            CacheLiveData liveData = mLiveData.get(key);
+            if (liveData == null) {
+                liveData = new CacheLiveData(key, mRetainedValues.remove(key));
+                mLiveData.put(key, liveData);
+                trimLocked(liveData);
+            }
+            return liveData;
+        } finally {
+            mLock.unlock();
+        }
     }
 
-    private void clearLiveDataCache() {
-        Iterator<Map.Entry<String, MutableLiveData<T>>> iterator = mLiveData.entrySet().iterator();
+    public int size() {
+        mLock.lock();
+        try {
+            return mLiveData.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 清理所有没有观察者的LiveData以及保留的值
+     */
+    public void evictAll() {
+        mLock.lock();
+        try {
+            Iterator<Map.Entry<String, CacheLiveData>> iterator = mLiveData.entrySet().iterator();
+            while (iterator.hasNext()) {
+                CacheLiveData liveData = iterator.next().getValue();
+                if (!liveData.hasObservers()) {
+                    iterator.remove();
+                    mTotalWeight -= liveData.mWeight;
+                }
+            }
+            mRetainedValues.clear();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @param pinned 刚创建、还没有观察者的LiveData，不能被淘汰，否则调用方拿到的实例不在缓存中
+     */
+    private void trimLocked(@Nullable CacheLiveData pinned) {
+        final long now = SystemClock.elapsedRealtime();
+        final boolean checkExpire = mIdleTimeout > 0 && now - mLastExpireCheckTime >= EXPIRE_CHECK_INTERVAL;
+        if (!checkExpire && mLiveData.size() <= mMaxLiveDataSize && mTotalWeight <= mMaxWeight) {
+            return;
+        }
+        if (checkExpire) {
+            mLastExpireCheckTime = now;
+        }
+        Iterator<Map.Entry<String, CacheLiveData>> iterator = mLiveData.entrySet().iterator();
         while (iterator.hasNext()) {
-            Map.Entry<String, MutableLiveData<T>> entry = iterator.next();
-            if (!entry.getValue().hasObservers()) {
+            final boolean overflow = mLiveData.size() > mMaxLiveDataSize || mTotalWeight > mMaxWeight;
+            if (!overflow && !checkExpire) {
+                return;
+            }
+            CacheLiveData liveData = iterator.next().getValue();
+            if (liveData == pinned || liveData.hasObservers()) {
+                continue;
+            }
+            if (overflow || now - liveData.mIdleSince >= mIdleTimeout) {
                 iterator.remove();
+                mTotalWeight -= liveData.mWeight;
+                retainLocked(liveData);
             }
-            if (mLiveData.size() < mMaxLiveDataSize) {
-                return;
+        }
+    }
+
+    private void retainLocked(CacheLiveData liveData) {
+        if (mMaxRetainedSize <= 0) {
+            return;
+        }
+        T value = liveData.getValue();
+        if (value == null) {
+            return;
+        }
+        mRetainedValues.put(liveData.mKey, value);
+        Iterator<String> iterator = mRetainedValues.keySet().iterator();
+        while (mRetainedValues.size() > mMaxRetainedSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private void onObserverAdded(CacheLiveData liveData) {
+        mLock.lock();
+        try {
+            liveData.mIdleSince = 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void onObserverRemoved(CacheLiveData liveData) {
+        mLock.lock();
+        try {
+            if (!liveData.hasObservers()) {
+                liveData.mIdleSince = SystemClock.elapsedRealtime();
+                trimLocked(null);
             }
+        } finally {
+            mLock.unlock();
         }
     }
 
-    private void checkLiveDataCache() {
-        if (mLiveData.size() >= mMaxLiveDataSize) {
-            mLock.tryLock();
-            clearLiveDataCache();
+    private void onValueChanged(CacheLiveData liveData, T value) {
+        if (mWeigher == null) {
+            return;
+        }
+        mLock.lock();
+        try {
+            final int weight = value == null ? 0 : mWeigher.weigh(liveData.mKey, value);
+            if (mLiveData.get(liveData.mKey) == liveData) {
+                mTotalWeight += weight - liveData.mWeight;
+            }
+            liveData.mWeight = weight;
+            trimLocked(null);
+        } finally {
             mLock.unlock();
         }
     }
 
     private class CacheLiveData extends MutableLiveData<T> {
+        private final String mKey;
+        private T mRetainedValue;
+        private int mWeight;
+        private long mIdleSince = SystemClock.elapsedRealtime();
+
+        private CacheLiveData(String key, T retainedValue) {
+            mKey = key;
+            mRetainedValue = retainedValue;
+            if (retainedValue != null && mWeigher != null) {
+                mWeight = mWeigher.weigh(key, retainedValue);
+                mTotalWeight += mWeight;
+            }
+        }
+
+        @Override
+        public T getValue() {
+            T value = super.getValue();
+            return value != null ? value : mRetainedValue;
+        }
+
+        @Override
+        public void setValue(T value) {
+            mRetainedValue = null;
+            super.setValue(value);
+            onValueChanged(this, value);
+        }
+
+        @Override
+        protected void onActive() {
+            super.onActive();
+            // 恢复被淘汰前保留的值，重新订阅时不需要等待重新加载
+            if (mRetainedValue != null && super.getValue() == null) {
+                setValue(mRetainedValue);
+            }
+        }
+
+        @Override
+        public void observe(@NonNull LifecycleOwner owner, @NonNull Observer<T> observer) {
+            super.observe(owner, observer);
+            onObserverAdded(this);
+        }
+
+        @Override
+        public void observeForever(@NonNull Observer<T> observer) {
+            super.observeForever(observer);
+            onObserverAdded(this);
+        }
+
         @Override
         public void removeObserver(@NonNull Observer<T> observer) {
             super.removeObserver(observer);
-            checkLiveDataCache();
+            onObserverRemoved(this);
         }
     }
-}
 
+    /**
+     * 计算缓存值的权重，例如占用的内存大小
+     */
+    public interface IWeigher<T> {
+        int weigh(@NonNull String key, @NonNull T value);
+    }
+
+    public static class Builder<T> {
+        private int mMaxLiveDataSize = DEFAULT_MAX_SIZE;
+        private long mMaxWeight = Long.MAX_VALUE;
+        private IWeigher<T> mWeigher;
+        private long mIdleTimeout;
+        private int mMaxRetainedSize;
+
+        /**
+         * 最多缓存的LiveData个数，有观察者的LiveData不会被淘汰，因此实际个数可能超过该值
+         */
+        public Builder<T> setMaxSize(int maxSize) {
+            mMaxLiveDataSize = maxSize;
+            return this;
+        }
 
+        /**
+         * 所有缓存值的权重上限
+         */
+        public Builder<T> setMaxWeight(long maxWeight, @NonNull IWeigher<T> weigher) {
+            mMaxWeight = maxWeight;
+            mWeigher = weigher;
+            return this;
+        }
+
+        /**
+         * 没有观察者超过该时间的LiveData会被淘汰，0表示不按时间淘汰
+         */
+        public Builder<T> setIdleTimeout(long idleTimeoutMillis) {
+            mIdleTimeout = idleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * 被淘汰后保留值的个数，0表示不保留
+         */
+        public Builder<T> setMaxRetainedSize(int maxRetainedSize) {
+            mMaxRetainedSize = maxRetainedSize;
+            return this;
+        }
+
+        public LiveDataCache<T> build() {
+            return new LiveDataCache<>(mMaxLiveDataSize, mMaxWeight, mWeigher, mIdleTimeout, mMaxRetainedSize);
+        }
+    }
+}
@@ -0,0 +1,747 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ContentValues;
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * 记录经过{@link IDatabaseOperation}执行的每条语句的耗时
+ * 查询的耗时为编译语句加上第一次访问cursor时填充第一个窗口的时间，不会提前执行查询，
+ * 记录发生在第一次访问cursor的线程上；从未访问就关闭的cursor只记录编译耗时
+ * 超过阈值的语句连同参数形态(类型与长度，不记录参数值)记入慢查询日志；
+ * 开启{@link #setExplainEnabled(boolean)}后在后台线程上对每种语句执行一次EXPLAIN QUERY PLAN，
+ * 标记全表扫描和临时B树排序，语句第一次出现时的慢查询记录可能还没有查询计划，建议只在debug包中开启
+ * 通过{@link BaseWCDBDatabase#setQueryProfiler(QueryProfiler)}或
+ * {@link BaseSQLiteDatabase#setQueryProfiler(QueryProfiler)}启用
+ */
+public class QueryProfiler {
+    private static final String TAG = "QueryProfiler";
+    private static final int DEFAULT_SLOW_THRESHOLD_MILLIS = 16;
+    private static final int DEFAULT_LOG_CAPACITY = 64;
+    private static final int MAX_STATEMENTS = 256;
+
+    private final ArrayDeque<SlowQuery> mSlowQueries = new ArrayDeque<>();
+    private final ConcurrentHashMap<String, StatementStats> mStatementStats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, QueryPlan> mQueryPlans = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Boolean> mExplaining = new ConcurrentHashMap<>();
+    private Executor mExplainExecutor;
+    private long mSlowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_THRESHOLD_MILLIS);
+    private int mLogCapacity = DEFAULT_LOG_CAPACITY;
+    private boolean mExplainEnabled;
+    private IListener mListener;
+
+    public QueryProfiler setSlowThreshold(long slowThresholdMillis) {
+        mSlowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+        return this;
+    }
+
+    /**
+     * @param logCapacity 慢查询日志保留的条数，超出时丢弃最早的记录
+     */
+    public QueryProfiler setLogCapacity(int logCapacity) {
+        if (logCapacity <= 0) {
+            throw new IllegalArgumentException("log capacity must be positive:" + logCapacity);
+        }
+        synchronized(mSlowQueries) {
+            mLogCapacity = logCapacity;
+            trimLocked();
+        }
+        return this;
+    }
+
+    public QueryProfiler setExplainEnabled(boolean explainEnabled) {
+        mExplainEnabled = explainEnabled;
+        return this;
+    }
+
+    /**
+     * @param executor 执行EXPLAIN QUERY PLAN的线程，默认在第一次需要时创建一个单线程
+     */
+    public QueryProfiler setExplainExecutor(@NonNull Executor executor) {
+        synchronized(this) {
+            mExplainExecutor = executor;
+        }
+        return this;
+    }
+
+    public QueryProfiler setListener(@Nullable IListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * @return 慢查询日志，按时间先后排列
+     */
+    @NonNull
+    public List<SlowQuery> getSlowQueries() {
+        synchronized(mSlowQueries) {
+            return new ArrayList<>(mSlowQueries);
+        }
+    }
+
+    /**
+     * @return 每种语句的执行次数与耗时，按总耗时从高到低排列
+     */
+    @NonNull
+    public List<StatementStats> getStatementStats() {
+        final ArrayList<StatementStats> stats = new ArrayList<>(mStatementStats.values());
+        Collections.sort(stats, new Comparator<StatementStats>() {
+            @Override
+            public int compare(StatementStats left, StatementStats right) {
+                final long leftNanos = left.getTotalNanos();
+                final long rightNanos = right.getTotalNanos();
+                return leftNanos < rightNanos ? 1 : (leftNanos == rightNanos ? 0 : -1);
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * @return 已分析过的查询计划中存在全表扫描或临时B树的语句
+     */
+    @NonNull
+    public List<QueryPlan> getSuspiciousPlans() {
+        final ArrayList<QueryPlan> plans = new ArrayList<>();
+        for (QueryPlan plan : mQueryPlans.values()) {
+            if (plan.hasFullTableScan() || plan.usesTempBTree()) {
+                plans.add(plan);
+            }
+        }
+        return plans;
+    }
+
+    public void clear() {
+        synchronized(mSlowQueries) {
+            mSlowQueries.clear();
+        }
+        mStatementStats.clear();
+        mQueryPlans.clear();
+    }
+
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println("Statements:");
+        for (StatementStats stats : getStatementStats()) {
+            writer.println("  " + stats);
+        }
+        writer.println("Slow queries:");
+        for (SlowQuery slowQuery : getSlowQueries()) {
+            writer.println("  " + slowQuery);
+        }
+        writer.println("Suspicious plans:");
+        for (QueryPlan plan : getSuspiciousPlans()) {
+            writer.println("  " + plan);
+        }
+    }
+
+    /**
+     * 对语句执行EXPLAIN QUERY PLAN
+     * @param bindArgs 与语句中的占位符一一对应，不能包含null
+     */
+    @NonNull
+    public static QueryPlan explain(@NonNull IDatabaseOperation databaseOperation, @NonNull String sql,
+                                    @Nullable String[] bindArgs) {
+        final ArrayList<String> details = new ArrayList<>();
+        final Cursor cursor = databaseOperation.rawQuery("EXPLAIN QUERY PLAN " + sql, bindArgs);
+        if (cursor != null) {
+            try {
+                final int detailIndex = cursor.getColumnIndex("detail");
+                while (cursor.moveToNext()) {
+                    details.add(cursor.getString(detailIndex >= 0 ? detailIndex : cursor.getColumnCount() - 1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new QueryPlan(sql, details);
+    }
+
+    @NonNull
+    ITransactionDatabaseOperation wrap(@NonNull ITransactionDatabaseOperation databaseOperation) {
+        return new ProfilingDatabaseOperation(databaseOperation, this);
+    }
+
+    private void record(IDatabaseOperation databaseOperation, String sql, String argumentShapes,
+                        String[] bindArgs, long durationNanos) {
+        StatementStats stats = mStatementStats.get(sql);
+        if (stats == null && mStatementStats.size() < MAX_STATEMENTS) {
+            final StatementStats newStats = new StatementStats(sql);
+            stats = mStatementStats.putIfAbsent(sql, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        if (stats != null) {
+            stats.record(durationNanos);
+        }
+        QueryPlan plan = null;
+        if (mExplainEnabled && isExplainable(sql)) {
+            plan = obtainQueryPlan(databaseOperation, sql, bindArgs);
+        }
+        if (durationNanos < mSlowThresholdNanos) {
+            return;
+        }
+        final SlowQuery slowQuery = new SlowQuery(sql, argumentShapes, durationNanos, System.currentTimeMillis(),
+                Thread.currentThread().getName(), plan);
+        Log.w(TAG, slowQuery.toString());
+        synchronized(mSlowQueries) {
+            mSlowQueries.addLast(slowQuery);
+            trimLocked();
+        }
+        final IListener listener = mListener;
+        if (listener != null) {
+            listener.onSlowQuery(slowQuery);
+        }
+    }
+
+    /**
+     * @return 已经得到的查询计划，还没有时提交到后台线程执行EXPLAIN并返回null
+     */
+    @Nullable
+    private QueryPlan obtainQueryPlan(final IDatabaseOperation databaseOperation, final String sql,
+                                      final String[] bindArgs) {
+        final QueryPlan plan = mQueryPlans.get(sql);
+        if (plan != null || mQueryPlans.size() >= MAX_STATEMENTS || mExplaining.putIfAbsent(sql, true) != null) {
+            return plan;
+        }
+        getExplainExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final QueryPlan newPlan = explain(databaseOperation, sql, bindArgs);
+                    if (mQueryPlans.putIfAbsent(sql, newPlan) == null
+                            && (newPlan.hasFullTableScan() || newPlan.usesTempBTree())) {
+                        Log.w(TAG, newPlan.toString());
+                    }
+                } catch (RuntimeException e) {
+                    Log.d(TAG, "explain failed:" + sql, e);
+                } finally {
+                    mExplaining.remove(sql);
+                }
+            }
+        });
+        return null;
+    }
+
+    private Executor getExplainExecutor() {
+        synchronized(this) {
+            if (mExplainExecutor == null) {
+                mExplainExecutor = Executors.newSingleThreadExecutor();
+            }
+            return mExplainExecutor;
+        }
+    }
+
+    private void trimLocked() {
+        while (mSlowQueries.size() > mLogCapacity) {
+            mSlowQueries.removeFirst();
+        }
+    }
+
+    private static boolean isExplainable(String sql) {
+        final String trimmed = sql.trim();
+        final int end = Math.min(trimmed.length(), 7);
+        final String keyword = trimmed.substring(0, end).toUpperCase(Locale.US);
+        return keyword.startsWith("SELECT") || keyword.startsWith("WITH") || keyword.startsWith("UPDATE")
+                || keyword.startsWith("DELETE");
+    }
+
+    @NonNull
+    private static String shapeOf(@Nullable String[] args) {
+        if (args == null || args.length == 0) {
+            return "[]";
+        }
+        final StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            appendShape(builder, args[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+    @NonNull
+    private static String shapeOf(@Nullable ContentValues values, @Nullable String[] whereArgs) {
+        final StringBuilder builder = new StringBuilder("[");
+        if (values != null) {
+            for (Map.Entry<String, Object> entry : values.valueSet()) {
+                if (builder.length() > 1) {
+                    builder.append(',');
+                }
+                builder.append(entry.getKey()).append('=');
+                appendShape(builder, entry.getValue());
+            }
+        }
+        if (whereArgs != null) {
+            for (String arg : whereArgs) {
+                if (builder.length() > 1) {
+                    builder.append(',');
+                }
+                appendShape(builder, arg);
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    private static void appendShape(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append("NULL");
+        } else if (value instanceof byte[]) {
+            builder.append("BLOB(").append(((byte[]) value).length).append(')');
+        } else if (value instanceof Float || value instanceof Double) {
+            builder.append("REAL");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            builder.append("INTEGER");
+        } else {
+            builder.append("TEXT(").append(value.toString().length()).append(')');
+        }
+    }
+
+    /**
+     * 拼接update语句的绑定参数，用于EXPLAIN QUERY PLAN，null替换为空字符串
+     */
+    @Nullable
+    private static String[] explainArgs(@Nullable ContentValues values, @Nullable String[] whereArgs) {
+        final ArrayList<String> args = new ArrayList<>();
+        if (values != null) {
+            for (Map.Entry<String, Object> entry : values.valueSet()) {
+                args.add(entry.getValue() == null ? "" : entry.getValue().toString());
+            }
+        }
+        if (whereArgs != null) {
+            for (String arg : whereArgs) {
+                args.add(arg == null ? "" : arg);
+            }
+        }
+        return args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    @NonNull
+    private static String whereOf(@Nullable String whereClause) {
+        return TextUtils.isEmpty(whereClause) ? "" : " WHERE " + whereClause;
+    }
+
+    /**
+     * 慢查询回调，在执行语句的线程上调用
+     */
+    public interface IListener {
+        void onSlowQuery(@NonNull SlowQuery slowQuery);
+    }
+
+    /**
+     * 一条慢查询记录
+     */
+    public static class SlowQuery {
+        private final String mSql;
+        private final String mArgumentShapes;
+        private final long mDurationNanos;
+        private final long mTimestamp;
+        private final String mThreadName;
+        private final QueryPlan mQueryPlan;
+
+        private SlowQuery(String sql, String argumentShapes, long durationNanos, long timestamp, String threadName,
+                          QueryPlan queryPlan) {
+            mSql = sql;
+            mArgumentShapes = argumentShapes;
+            mDurationNanos = durationNanos;
+            mTimestamp = timestamp;
+            mThreadName = threadName;
+            mQueryPlan = queryPlan;
+        }
+
+        @NonNull
+        public String getSql() {
+            return mSql;
+        }
+
+        /**
+         * @return 参数形态，例如"[TEXT(12),INTEGER,NULL]"
+         */
+        @NonNull
+        public String getArgumentShapes() {
+            return mArgumentShapes;
+        }
+
+        public long getDurationMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mDurationNanos);
+        }
+
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @NonNull
+        public String getThreadName() {
+            return mThreadName;
+        }
+
+        /**
+         * @return 未开启EXPLAIN或语句不支持时为null
+         */
+        @Nullable
+        public QueryPlan getQueryPlan() {
+            return mQueryPlan;
+        }
+
+        @Override
+        public String toString() {
+            return "slow query " + getDurationMillis() + "ms on " + mThreadName + ":" + mSql + " args:"
+                    + mArgumentShapes + (mQueryPlan == null ? "" : " plan:" + mQueryPlan.getDetails());
+        }
+    }
+
+    /**
+     * EXPLAIN QUERY PLAN的结果
+     */
+    public static class QueryPlan {
+        private final String mSql;
+        private final List<String> mDetails;
+        private final boolean mFullTableScan;
+        private final boolean mTempBTree;
+
+        private QueryPlan(String sql, List<String> details) {
+            mSql = sql;
+            mDetails = Collections.unmodifiableList(details);
+            boolean fullTableScan = false;
+            boolean tempBTree = false;
+            for (String detail : details) {
+                if (detail == null) {
+                    continue;
+                }
+                final String upperDetail = detail.toUpperCase(Locale.US);
+                // 覆盖索引扫描只读取索引，不算全表扫描
+                if (upperDetail.startsWith("SCAN") && !upperDetail.contains("COVERING INDEX")) {
+                    fullTableScan = true;
+                }
+                if (upperDetail.contains("USE TEMP B-TREE")) {
+                    tempBTree = true;
+                }
+            }
+            mFullTableScan = fullTableScan;
+            mTempBTree = tempBTree;
+        }
+
+        @NonNull
+        public String getSql() {
+            return mSql;
+        }
+
+        @NonNull
+        public List<String> getDetails() {
+            return mDetails;
+        }
+
+        public boolean hasFullTableScan() {
+            return mFullTableScan;
+        }
+
+        /**
+         * @return 是否需要临时B树完成ORDER BY/GROUP BY/DISTINCT，通常说明缺少合适的索引
+         */
+        public boolean usesTempBTree() {
+            return mTempBTree;
+        }
+
+        @Override
+        public String toString() {
+            return (mFullTableScan ? "[SCAN]" : "") + (mTempBTree ? "[TEMP B-TREE]" : "") + mSql + " " + mDetails;
+        }
+    }
+
+    /**
+     * 同一条语句的累计耗时
+     */
+    public static class StatementStats {
+        private final String mSql;
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+
+        private StatementStats(String sql) {
+            mSql = sql;
+        }
+
+        private void record(long durationNanos) {
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(durationNanos);
+            long max = mMaxNanos.get();
+            while (durationNanos > max && !mMaxNanos.compareAndSet(max, durationNanos)) {
+                max = mMaxNanos.get();
+            }
+        }
+
+        @NonNull
+        public String getSql() {
+            return mSql;
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getTotalNanos() {
+            return mTotalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            final long count = getCount();
+            return mSql + " count:" + count + " total:" + TimeUnit.NANOSECONDS.toMillis(getTotalNanos()) + "ms avg:"
+                    + (count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(getTotalNanos() / count)) + "us max:"
+                    + TimeUnit.NANOSECONDS.toMillis(getMaxNanos()) + "ms";
+        }
+    }
+
+    /**
+     * 计时的数据库操作，查询返回{@link ProfilingCursor}，在第一次访问时完成计时
+     */
+    private static class ProfilingDatabaseOperation implements ITransactionDatabaseOperation {
+        private final ITransactionDatabaseOperation mDatabaseOperation;
+        private final QueryProfiler mProfiler;
+
+        private ProfilingDatabaseOperation(ITransactionDatabaseOperation databaseOperation, QueryProfiler profiler) {
+            mDatabaseOperation = databaseOperation;
+            mProfiler = profiler;
+        }
+
+        @Override
+        public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                            String groupBy, String having, String orderBy) {
+            final long start = System.nanoTime();
+            final Cursor cursor = mDatabaseOperation.query(table, columns, selection, selectionArgs, groupBy, having,
+                    orderBy);
+            final long duration = System.nanoTime() - start;
+            final String sql = SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, groupBy, having,
+                    orderBy, null);
+            return profile(cursor, sql, selectionArgs, duration);
+        }
+
+        @Override
+        public long insert(String table, String nullColumnHack, ContentValues values) {
+            final long start = System.nanoTime();
+            final long rowId = mDatabaseOperation.insert(table, nullColumnHack, values);
+            final long duration = System.nanoTime() - start;
+            final String sql = "INSERT INTO " + table + "(" + (values == null ? ""
+                    : TextUtils.join(",", values.keySet())) + ")";
+            mProfiler.record(mDatabaseOperation, sql, shapeOf(values, null), null, duration);
+            return rowId;
+        }
+
+        @Override
+        public int delete(String table, String whereClause, String[] whereArgs) {
+            final long start = System.nanoTime();
+            final int count = mDatabaseOperation.delete(table, whereClause, whereArgs);
+            final long duration = System.nanoTime() - start;
+            final String sql = "DELETE FROM " + table + whereOf(whereClause);
+            mProfiler.record(mDatabaseOperation, sql, shapeOf(whereArgs), whereArgs, duration);
+            return count;
+        }
+
+        @Override
+        public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+            final long start = System.nanoTime();
+            final int count = mDatabaseOperation.update(table, values, whereClause, whereArgs);
+            final long duration = System.nanoTime() - start;
+            final StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+            if (values != null) {
+                boolean first = true;
+                for (String column : values.keySet()) {
+                    if (!first) {
+                        sql.append(',');
+                    }
+                    sql.append(column).append("=?");
+                    first = false;
+                }
+            }
+            sql.append(whereOf(whereClause));
+            mProfiler.record(mDatabaseOperation, sql.toString(), shapeOf(values, whereArgs),
+                    explainArgs(values, whereArgs), duration);
+            return count;
+        }
+
+        @Override
+        public Cursor rawQuery(String sql, String[] selectionArgs) {
+            final long start = System.nanoTime();
+            final Cursor cursor = mDatabaseOperation.rawQuery(sql, selectionArgs);
+            return profile(cursor, sql, selectionArgs, System.nanoTime() - start);
+        }
+
+        @Override
+        public void execSQL(String sql) {
+            final long start = System.nanoTime();
+            mDatabaseOperation.execSQL(sql);
+            mProfiler.record(mDatabaseOperation, sql, "[]", null, System.nanoTime() - start);
+        }
+
+        @Override
+        public void beginTransaction() {
+            mDatabaseOperation.beginTransaction();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            mDatabaseOperation.setTransactionSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            final long start = System.nanoTime();
+            mDatabaseOperation.endTransaction();
+            mProfiler.record(mDatabaseOperation, "END TRANSACTION", "[]", null, System.nanoTime() - start);
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return mDatabaseOperation.inTransaction();
+        }
+
+        private Cursor profile(Cursor cursor, String sql, String[] selectionArgs, long compileNanos) {
+            if (cursor == null) {
+                mProfiler.record(mDatabaseOperation, sql, shapeOf(selectionArgs), selectionArgs, compileNanos);
+                return null;
+            }
+            return new ProfilingCursor(cursor, this, sql, selectionArgs, compileNanos);
+        }
+    }
+
+    /**
+     * 第一次访问时计时填充第一个窗口，与不计时时第一次移动cursor的开销相同
+     * 跨进程返回时由fillWindow完成计时，仍然直接填充原cursor的窗口
+     */
+    private static class ProfilingCursor extends CrossProcessCursorWrapper {
+        private final ProfilingDatabaseOperation mOperation;
+        private final String mSql;
+        private final String[] mSelectionArgs;
+        private final long mCompileNanos;
+        private boolean mRecorded;
+
+        private ProfilingCursor(Cursor cursor, ProfilingDatabaseOperation operation, String sql,
+                                String[] selectionArgs, long compileNanos) {
+            super(cursor);
+            mOperation = operation;
+            mSql = sql;
+            mSelectionArgs = selectionArgs;
+            mCompileNanos = compileNanos;
+        }
+
+        private void recordFirstAccess() {
+            if (mRecorded) {
+                return;
+            }
+            mRecorded = true;
+            final long start = System.nanoTime();
+            super.getCount();
+            record(System.nanoTime() - start);
+        }
+
+        private void record(long fillNanos) {
+            mOperation.mProfiler.record(mOperation.mDatabaseOperation, mSql, shapeOf(mSelectionArgs), mSelectionArgs,
+                    mCompileNanos + fillNanos);
+        }
+
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            if (mRecorded) {
+                super.fillWindow(position, window);
+                return;
+            }
+            mRecorded = true;
+            final long start = System.nanoTime();
+            super.fillWindow(position, window);
+            record(System.nanoTime() - start);
+        }
+
+        @Override
+        public int getCount() {
+            recordFirstAccess();
+            return super.getCount();
+        }
+
+        @Override
+        public boolean move(int offset) {
+            recordFirstAccess();
+            return super.move(offset);
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            recordFirstAccess();
+            return super.moveToPosition(position);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            recordFirstAccess();
+            return super.moveToFirst();
+        }
+
+        @Override
+        public boolean moveToLast() {
+            recordFirstAccess();
+            return super.moveToLast();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            recordFirstAccess();
+            return super.moveToNext();
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            recordFirstAccess();
+            return super.moveToPrevious();
+        }
+
+        @Override
+        public void close() {
+            if (!mRecorded) {
+                mRecorded = true;
+                record(0);
+            }
+            super.close();
+        }
+    }
+}
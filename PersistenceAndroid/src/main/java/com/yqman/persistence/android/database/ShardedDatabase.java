@@ -0,0 +1,286 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 将一张逻辑表按key拆分到多个数据库文件中
+ * 每个分片是独立的{@link IDatabaseContext}，拥有各自的文件和写锁，写入吞吐随分片数增长
+ * 按key的操作路由到对应分片，不带key的查询并发地在所有分片上执行后合并
+ */
+public class ShardedDatabase {
+    private final IDatabaseContext[] mShards;
+    private final IShardResolver mShardResolver;
+    private final ExecutorService mExecutor;
+    private final boolean mOwnsExecutor;
+
+    /**
+     * 按key的hash选择分片，并发查询使用内部创建的线程池，不再使用时调用{@link #close()}
+     */
+    public ShardedDatabase(@NonNull IShardFactory shardFactory, int shardCount) {
+        this(shardFactory, shardCount, null, null);
+    }
+
+    /**
+     * @param shardResolver 自定义key到分片的映射，例如按账号固定分片，为null时按hash选择
+     * @param executor 并发查询使用的线程池，由调用方负责关闭；为null时内部创建，在{@link #close()}时关闭
+     */
+    public ShardedDatabase(@NonNull IShardFactory shardFactory, int shardCount,
+                           @Nullable IShardResolver shardResolver, @Nullable ExecutorService executor) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shard count must be positive:" + shardCount);
+        }
+        mShards = new IDatabaseContext[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            mShards[i] = shardFactory.createShard(i);
+        }
+        mShardResolver = shardResolver;
+        mOwnsExecutor = executor == null;
+        mExecutor = executor == null ? Executors.newFixedThreadPool(shardCount) : executor;
+    }
+
+    /**
+     * 关闭内部创建的线程池，之后不能再执行跨分片操作；分片本身的生命周期仍由{@link IShardFactory}的调用方管理
+     */
+    public void close() {
+        if (mOwnsExecutor) {
+            mExecutor.shutdown();
+        }
+    }
+
+    public int getShardCount() {
+        return mShards.length;
+    }
+
+    public int getShardIndex(@NonNull String shardKey) {
+        if (mShardResolver != null) {
+            final int index = mShardResolver.resolve(shardKey, mShards.length);
+            if (index < 0 || index >= mShards.length) {
+                throw new IllegalStateException("invalid shard index " + index + " for key " + shardKey);
+            }
+            return index;
+        }
+        int hash = shardKey.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % mShards.length;
+    }
+
+    @NonNull
+    public IDatabaseContext getShard(@NonNull String shardKey) {
+        return mShards[getShardIndex(shardKey)];
+    }
+
+    @NonNull
+    public IDatabaseContext getShardAt(int index) {
+        return mShards[index];
+    }
+
+    public IDatabaseOperation getDatabase(@NonNull String shardKey, boolean writable) {
+        return getShard(shardKey).getDatabase(writable);
+    }
+
+    public Cursor query(@NonNull String shardKey, String table, String[] columns, String selection,
+                        String[] selectionArgs, String groupBy, String having, String orderBy) {
+        return getDatabase(shardKey, false).query(table, columns, selection, selectionArgs, groupBy, having,
+                orderBy);
+    }
+
+    public long insert(@NonNull String shardKey, String table, String nullColumnHack, ContentValues values) {
+        return getDatabase(shardKey, true).insert(table, nullColumnHack, values);
+    }
+
+    public int update(@NonNull String shardKey, String table, ContentValues values, String whereClause,
+                      String[] whereArgs) {
+        return getDatabase(shardKey, true).update(table, values, whereClause, whereArgs);
+    }
+
+    public int delete(@NonNull String shardKey, String table, String whereClause, String[] whereArgs) {
+        return getDatabase(shardKey, true).delete(table, whereClause, whereArgs);
+    }
+
+    /**
+     * 在所有分片上并发查询
+     * @param orderColumn 排序列名，不为null时各分片的结果按该列归并，整体保持有序；为null时按分片顺序拼接
+     *                    文本按BINARY规则(UTF-8字节序)排序，不支持COLLATE，列声明的排序规则也会被忽略
+     */
+    @Nullable
+    public Cursor queryAll(final String table, final String[] columns, final String selection,
+                           final String[] selectionArgs, @Nullable String orderColumn, boolean ascending) {
+        if (orderColumn != null && !isPlainColumn(orderColumn)) {
+            throw new IllegalArgumentException("order column must be a plain column name:" + orderColumn);
+        }
+        // 显式指定BINARY，避免列上声明的NOCASE等规则与归并时的比较不一致
+        final String orderBy = orderColumn == null ? null
+                : orderColumn + " COLLATE BINARY" + (ascending ? " ASC" : " DESC");
+        final List<Cursor> cursors = scatter(new IShardTask<Cursor>() {
+            @Override
+            public Cursor run(IDatabaseOperation databaseOperation) {
+                final Cursor cursor = databaseOperation.query(table, columns, selection, selectionArgs,
+                        null, null, orderBy);
+                if (cursor != null) {
+                    // 在分片线程上执行查询并填充数据
+                    cursor.getCount();
+                }
+                return cursor;
+            }
+        }, false);
+        final ArrayList<Cursor> results = new ArrayList<>(cursors.size());
+        for (Cursor cursor : cursors) {
+            if (cursor != null) {
+                results.add(cursor);
+            }
+        }
+        if (results.isEmpty()) {
+            return null;
+        }
+        final Cursor[] array = results.toArray(new Cursor[results.size()]);
+        if (orderColumn == null) {
+            return new MergeCursor(array);
+        }
+        try {
+            return new SortedMergeCursor(array, orderColumn, ascending);
+        } catch (RuntimeException e) {
+            // 例如columns中不包含orderColumn
+            for (Cursor cursor : array) {
+                cursor.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 在所有分片上并发更新，每个分片各自提交，不是跨分片的事务：
+     * 某个分片失败时抛出异常，但其他分片的修改已经提交，不会回滚；需要知道每个分片的结果时使用{@link #scatter}
+     * @return 所有分片更新的总行数
+     */
+    public int updateAll(final String table, final ContentValues values, final String whereClause,
+                         final String[] whereArgs) {
+        int count = 0;
+        for (Integer shardCount : scatter(new IShardTask<Integer>() {
+            @Override
+            public Integer run(IDatabaseOperation databaseOperation) {
+                return databaseOperation.update(table, values, whereClause, whereArgs);
+            }
+        }, true)) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    /**
+     * 在所有分片上并发删除，与{@link #updateAll}一样各分片独立提交，部分分片失败时其余分片的删除不会回滚
+     * @return 所有分片删除的总行数
+     */
+    public int deleteAll(final String table, final String whereClause, final String[] whereArgs) {
+        int count = 0;
+        for (Integer shardCount : scatter(new IShardTask<Integer>() {
+            @Override
+            public Integer run(IDatabaseOperation databaseOperation) {
+                return databaseOperation.delete(table, whereClause, whereArgs);
+            }
+        }, true)) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    /**
+     * 在所有分片上执行，例如建表后的批量维护
+     * 任一分片失败时等待其余分片结束后抛出异常，已返回的Cursor会被关闭，已完成的写入不会回滚
+     */
+    @NonNull
+    public <T> List<T> scatter(@NonNull final IShardTask<T> task, final boolean writable) {
+        final ArrayList<Future<T>> futures = new ArrayList<>(mShards.length);
+        for (final IDatabaseContext shard : mShards) {
+            futures.add(mExecutor.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    return task.run(shard.getDatabase(writable));
+                }
+            }));
+        }
+        final ArrayList<T> results = new ArrayList<>(mShards.length);
+        RuntimeException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new IllegalStateException("interrupted while waiting for shards", e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                failure = cause instanceof RuntimeException ? (RuntimeException) cause
+                        : new IllegalStateException(cause);
+            }
+        }
+        if (failure != null) {
+            for (T result : results) {
+                if (result instanceof Cursor) {
+                    ((Cursor) result).close();
+                }
+            }
+            throw failure;
+        }
+        return results;
+    }
+
+    private static boolean isPlainColumn(String column) {
+        if (column.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < column.length(); i++) {
+            final char c = column.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 创建第index个分片，通常是使用不同文件名的{@link BaseWCDBDatabase}
+     */
+    public interface IShardFactory {
+        @NonNull
+        IDatabaseContext createShard(int index);
+    }
+
+    /**
+     * 自定义分片规则
+     */
+    public interface IShardResolver {
+        int resolve(@NonNull String shardKey, int shardCount);
+    }
+
+    /**
+     * 在单个分片上执行的任务
+     */
+    public interface IShardTask<T> {
+        T run(@NonNull IDatabaseOperation databaseOperation);
+    }
+}
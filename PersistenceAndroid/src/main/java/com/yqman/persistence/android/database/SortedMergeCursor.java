@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+/**
+ * 归并多个已按同一列排序的cursor，按需推进，只在访问到的位置之前完成归并
+ * 比较规则与SQLite的BINARY排序一致：NULL最小，数字小于字符串，字符串小于BLOB，字符串按UTF-8字节序比较
+ */
+class SortedMergeCursor extends AbstractCursor {
+    private final Cursor[] mCursors;
+    private final int[] mOrderColumns;
+    private final boolean mAscending;
+    private final int[] mNextPositions;
+    private final int mCount;
+    private int[] mMergedCursors;
+    private int[] mMergedPositions;
+    private int mMergedCount;
+    private Cursor mCurrentCursor;
+
+    SortedMergeCursor(@NonNull Cursor[] cursors, @NonNull String orderColumn, boolean ascending) {
+        mCursors = cursors;
+        mAscending = ascending;
+        mOrderColumns = new int[cursors.length];
+        mNextPositions = new int[cursors.length];
+        int count = 0;
+        for (int i = 0; i < cursors.length; i++) {
+            mOrderColumns[i] = cursors[i].getColumnIndexOrThrow(orderColumn);
+            count += cursors[i].getCount();
+        }
+        mCount = count;
+        mMergedCursors = new int[Math.min(count, 64)];
+        mMergedPositions = new int[mMergedCursors.length];
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mCursors[0].getColumnNames();
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        while (mMergedCount <= newPosition) {
+            if (!mergeNext()) {
+                return false;
+            }
+        }
+        mCurrentCursor = mCursors[mMergedCursors[newPosition]];
+        return mCurrentCursor.moveToPosition(mMergedPositions[newPosition]);
+    }
+
+    private boolean mergeNext() {
+        int selected = -1;
+        for (int i = 0; i < mCursors.length; i++) {
+            if (mNextPositions[i] >= mCursors[i].getCount()) {
+                continue;
+            }
+            if (selected < 0) {
+                selected = i;
+                continue;
+            }
+            mCursors[i].moveToPosition(mNextPositions[i]);
+            mCursors[selected].moveToPosition(mNextPositions[selected]);
+            int result = compare(mCursors[i], mOrderColumns[i], mCursors[selected], mOrderColumns[selected]);
+            if (mAscending ? result < 0 : result > 0) {
+                selected = i;
+            }
+        }
+        if (selected < 0) {
+            return false;
+        }
+        if (mMergedCount == mMergedCursors.length) {
+            final int capacity = Math.min(mCount, Math.max(mMergedCount * 2, 64));
+            final int[] cursors = new int[capacity];
+            final int[] positions = new int[capacity];
+            System.arraycopy(mMergedCursors, 0, cursors, 0, mMergedCount);
+            System.arraycopy(mMergedPositions, 0, positions, 0, mMergedCount);
+            mMergedCursors = cursors;
+            mMergedPositions = positions;
+        }
+        mMergedCursors[mMergedCount] = selected;
+        mMergedPositions[mMergedCount] = mNextPositions[selected];
+        mMergedCount++;
+        mNextPositions[selected]++;
+        return true;
+    }
+
+    private static int compare(Cursor left, int leftColumn, Cursor right, int rightColumn) {
+        final int leftType = left.getType(leftColumn);
+        final int rightType = right.getType(rightColumn);
+        final int leftRank = typeRank(leftType);
+        final int rightRank = typeRank(rightType);
+        if (leftRank != rightRank) {
+            return leftRank < rightRank ? -1 : 1;
+        }
+        switch (leftType) {
+            case FIELD_TYPE_NULL:
+                return 0;
+            case FIELD_TYPE_INTEGER:
+            case FIELD_TYPE_FLOAT:
+                if (leftType == FIELD_TYPE_INTEGER && rightType == FIELD_TYPE_INTEGER) {
+                    final long leftValue = left.getLong(leftColumn);
+                    final long rightValue = right.getLong(rightColumn);
+                    return leftValue < rightValue ? -1 : (leftValue == rightValue ? 0 : 1);
+                }
+                return Double.compare(left.getDouble(leftColumn), right.getDouble(rightColumn));
+            case FIELD_TYPE_STRING:
+                return compareUtf8(left.getString(leftColumn), right.getString(rightColumn));
+            default:
+                final byte[] leftBlob = left.getBlob(leftColumn);
+                final byte[] rightBlob = right.getBlob(rightColumn);
+                final int length = Math.min(leftBlob.length, rightBlob.length);
+                for (int i = 0; i < length; i++) {
+                    final int diff = (leftBlob[i] & 0xff) - (rightBlob[i] & 0xff);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+                return leftBlob.length - rightBlob.length;
+        }
+    }
+
+    /**
+     * UTF-8字节序等价于码点序，String.compareTo按UTF-16代码单元比较，在补充平面字符上与SQLite不一致
+     */
+    private static int compareUtf8(String left, String right) {
+        int leftIndex = 0;
+        int rightIndex = 0;
+        while (leftIndex < left.length() && rightIndex < right.length()) {
+            final int leftCodePoint = left.codePointAt(leftIndex);
+            final int rightCodePoint = right.codePointAt(rightIndex);
+            if (leftCodePoint != rightCodePoint) {
+                return leftCodePoint < rightCodePoint ? -1 : 1;
+            }
+            leftIndex += Character.charCount(leftCodePoint);
+            rightIndex += Character.charCount(rightCodePoint);
+        }
+        final int leftRemaining = left.length() - leftIndex;
+        final int rightRemaining = right.length() - rightIndex;
+        return leftRemaining == rightRemaining ? 0 : (leftRemaining < rightRemaining ? -1 : 1);
+    }
+
+    private static int typeRank(int type) {
+        switch (type) {
+            case FIELD_TYPE_NULL:
+                return 0;
+            case FIELD_TYPE_INTEGER:
+            case FIELD_TYPE_FLOAT:
+                return 1;
+            case FIELD_TYPE_STRING:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    @Override
+    public int getType(int column) {
+        return mCurrentCursor.getType(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCurrentCursor.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCurrentCursor.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCurrentCursor.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCurrentCursor.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCurrentCursor.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCurrentCursor.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mCurrentCursor.getBlob(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCurrentCursor.isNull(column);
+    }
+
+    @Override
+    public void deactivate() {
+        for (Cursor cursor : mCursors) {
+            cursor.deactivate();
+        }
+        super.deactivate();
+    }
+
+    @Override
+    public void close() {
+        for (Cursor cursor : mCursors) {
+            cursor.close();
+        }
+        super.close();
+    }
+}
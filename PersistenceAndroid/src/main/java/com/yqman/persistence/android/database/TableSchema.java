@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 表结构声明，包含列、表约束与索引
+ */
+public class TableSchema {
+    private static final String[] CONSTRAINT_KEYWORDS = new String[] {
+            "NOT", "NULL", "PRIMARY", "UNIQUE", "DEFAULT", "CHECK", "REFERENCES", "COLLATE", "CONSTRAINT",
+            "GENERATED", "AS"
+    };
+    private static final Pattern PRIMARY_KEY_CONSTRAINT = Pattern.compile("PRIMARY\\s+KEY\\s*\\(([^)]*)\\)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final String mName;
+    private final LinkedHashMap<String, String> mColumns = new LinkedHashMap<>();
+    private final ArrayList<IndexSchema> mIndices = new ArrayList<>();
+    private String mTableConstraint;
+    private boolean mWithoutRowId;
+
+    public TableSchema(@NonNull String name) {
+        mName = name;
+    }
+
+    /**
+     * @param signature 列的类型与约束，例如"TEXT not null"
+     */
+    public TableSchema addColumn(@NonNull String columnName, @NonNull String signature) {
+        mColumns.put(columnName, signature);
+        return this;
+    }
+
+    /**
+     * 表约束，例如"UNIQUE(path) ON CONFLICT REPLACE"
+     */
+    public TableSchema setTableConstraint(@Nullable String tableConstraint) {
+        mTableConstraint = tableConstraint;
+        return this;
+    }
+
+    public TableSchema setWithoutRowId(boolean withoutRowId) {
+        mWithoutRowId = withoutRowId;
+        return this;
+    }
+
+    public TableSchema addIndex(@NonNull IndexSchema index) {
+        mIndices.add(index);
+        return this;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    @Nullable
+    String getTableConstraint() {
+        return mTableConstraint;
+    }
+
+    boolean isWithoutRowId() {
+        return mWithoutRowId;
+    }
+
+    /**
+     * @return 列是否属于主键，包括列声明中的PRIMARY KEY和表约束中的PRIMARY KEY(a,b)
+     */
+    boolean isPrimaryKeyColumn(@NonNull String columnName) {
+        final String signature = mColumns.get(columnName);
+        if (signature != null && isPrimaryKey(signature)) {
+            return true;
+        }
+        if (mTableConstraint == null) {
+            return false;
+        }
+        final Matcher matcher = PRIMARY_KEY_CONSTRAINT.matcher(mTableConstraint);
+        if (!matcher.find()) {
+            return false;
+        }
+        for (String item : matcher.group(1).split(",")) {
+            // 去掉COLLATE、ASC/DESC与引号
+            String name = item.trim().split("\\s+")[0];
+            if (name.length() > 1 && "\"`[".indexOf(name.charAt(0)) >= 0) {
+                name = name.substring(1, name.length() - 1);
+            }
+            if (name.equalsIgnoreCase(columnName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 列是否不允许为NULL，WITHOUT ROWID表的主键列由SQLite隐式设为NOT NULL
+     */
+    boolean isNotNullColumn(@NonNull String columnName) {
+        final String signature = mColumns.get(columnName);
+        return (signature != null && isNotNull(signature)) || (mWithoutRowId && isPrimaryKeyColumn(columnName));
+    }
+
+    @NonNull
+    List<String> getColumnNames() {
+        return new ArrayList<>(mColumns.keySet());
+    }
+
+    @Nullable
+    String getSignature(@NonNull String columnName) {
+        return mColumns.get(columnName);
+    }
+
+    @NonNull
+    List<IndexSchema> getIndices() {
+        return Collections.unmodifiableList(mIndices);
+    }
+
+    @Nullable
+    String createTableSql() {
+        return createTableSql(mName);
+    }
+
+    @Nullable
+    String createTableSql(@NonNull String tableName) {
+        return createTableSql(tableName, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param extraColumns 声明之外追加的列，列名到列声明
+     */
+    @Nullable
+    String createTableSql(@NonNull String tableName, @NonNull Map<String, String> extraColumns) {
+        final CreateTableSQLBuilder builder = new CreateTableSQLBuilder(tableName).setWithoutRowId(mWithoutRowId);
+        if (mTableConstraint != null) {
+            builder.setTableContract(mTableConstraint);
+        }
+        for (String column : mColumns.keySet()) {
+            builder.addColumn(column, mColumns.get(column));
+        }
+        for (Map.Entry<String, String> column : extraColumns.entrySet()) {
+            builder.addColumn(column.getKey(), column.getValue());
+        }
+        return builder.createSql();
+    }
+
+    /**
+     * @return 列声明中的类型部分，例如"TEXT not null"返回"TEXT"
+     */
+    @NonNull
+    static String declaredType(@NonNull String signature) {
+        final StringBuilder type = new StringBuilder();
+        for (String token : signature.trim().split("\\s+")) {
+            if (isConstraintKeyword(token)) {
+                break;
+            }
+            if (type.length() > 0) {
+                type.append(' ');
+            }
+            type.append(token);
+        }
+        return type.toString().toUpperCase(Locale.US);
+    }
+
+    static boolean isNotNull(@NonNull String signature) {
+        return signature.toUpperCase(Locale.US).replaceAll("\\s+", " ").contains("NOT NULL");
+    }
+
+    static boolean isPrimaryKey(@NonNull String signature) {
+        return signature.toUpperCase(Locale.US).replaceAll("\\s+", " ").contains("PRIMARY KEY");
+    }
+
+    static boolean hasDefault(@NonNull String signature) {
+        return signature.toUpperCase(Locale.US).contains("DEFAULT");
+    }
+
+    static boolean isUnique(@NonNull String signature) {
+        return signature.toUpperCase(Locale.US).contains("UNIQUE");
+    }
+
+    private static boolean isConstraintKeyword(String token) {
+        final String upperToken = token.toUpperCase(Locale.US);
+        for (String keyword : CONSTRAINT_KEYWORDS) {
+            if (keyword.equals(upperToken)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
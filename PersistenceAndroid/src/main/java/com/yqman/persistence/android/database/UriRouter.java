@@ -0,0 +1,324 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+/**
+ * ContentProvider的uri路由表
+ * 路径按'/'分段，"#"匹配数字段，"*"匹配任意段，匹配优先级为 固定段 > "#" > "*"，不回溯，
+ * 匹配耗时只与路径段数有关
+ * 每条路由记录调用次数、耗时与影响的行数
+ */
+public class UriRouter {
+    private static final String NUMBER_SEGMENT = "#";
+    private static final String TEXT_SEGMENT = "*";
+
+    private final String mAuthority;
+    private final Node mRoot = new Node();
+    private final ArrayList<Route> mRoutes = new ArrayList<>();
+
+    public UriRouter(@NonNull String authority) {
+        mAuthority = authority;
+    }
+
+    /**
+     * @param pathPattern 例如"cloudfile"、"cloudfile/#"、"account/*"
+     * @param table 路由对应的表
+     */
+    @NonNull
+    public Route addRoute(@NonNull String pathPattern, @NonNull String table) {
+        Node node = mRoot;
+        boolean endsWithNumber = false;
+        for (String segment : TextUtils.split(pathPattern, "/")) {
+            if (segment.length() == 0) {
+                continue;
+            }
+            endsWithNumber = NUMBER_SEGMENT.equals(segment);
+            node = node.getOrCreateChild(segment);
+        }
+        if (node.route != null) {
+            throw new IllegalArgumentException("duplicate route:" + pathPattern);
+        }
+        final Route route = new Route(pathPattern, table, endsWithNumber);
+        node.route = route;
+        mRoutes.add(route);
+        return route;
+    }
+
+    @Nullable
+    public Match match(@NonNull Uri uri) {
+        if (!TextUtils.equals(mAuthority, uri.getAuthority())) {
+            return null;
+        }
+        final List<String> segments = uri.getPathSegments();
+        Node node = mRoot;
+        ArrayList<String> parameters = null;
+        for (int i = 0; i < segments.size(); i++) {
+            final String segment = segments.get(i);
+            Node next = node.literals == null ? null : node.literals.get(segment);
+            if (next == null) {
+                if (node.number != null && isNumber(segment)) {
+                    next = node.number;
+                } else if (node.text != null) {
+                    next = node.text;
+                } else {
+                    return null;
+                }
+                if (parameters == null) {
+                    parameters = new ArrayList<>(2);
+                }
+                parameters.add(segment);
+            }
+            node = next;
+        }
+        if (node.route == null) {
+            return null;
+        }
+        List<String> matchedParameters = parameters == null ? Collections.<String>emptyList() : parameters;
+        return new Match(node.route, matchedParameters);
+    }
+
+    @NonNull
+    public List<Route> getRoutes() {
+        return Collections.unmodifiableList(mRoutes);
+    }
+
+    private static boolean isNumber(String segment) {
+        final int length = segment.length();
+        if (length == 0 || length > 18) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 路由树节点
+     */
+    private static class Node {
+        private HashMap<String, Node> literals;
+        private Node number;
+        private Node text;
+        private Route route;
+
+        private Node getOrCreateChild(String segment) {
+            if (NUMBER_SEGMENT.equals(segment)) {
+                if (number == null) {
+                    number = new Node();
+                }
+                return number;
+            }
+            if (TEXT_SEGMENT.equals(segment)) {
+                if (text == null) {
+                    text = new Node();
+                }
+                return text;
+            }
+            if (literals == null) {
+                literals = new HashMap<>();
+            }
+            Node child = literals.get(segment);
+            if (child == null) {
+                child = new Node();
+                literals.put(segment, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * 一条路由及其统计信息
+     */
+    public static class Route {
+        private final String mPattern;
+        private final String mTable;
+        private final boolean mEndsWithNumber;
+        private String mMimeType;
+        private String mIdColumn;
+        private final AtomicLong mCallCount = new AtomicLong();
+        private final AtomicLong mRowCount = new AtomicLong();
+        private final AtomicLong mTotalTimeNanos = new AtomicLong();
+        private final AtomicLong mMaxTimeNanos = new AtomicLong();
+
+        private Route(String pattern, String table, boolean endsWithNumber) {
+            mPattern = pattern;
+            mTable = table;
+            mEndsWithNumber = endsWithNumber;
+        }
+
+        /**
+         * {@link android.content.ContentProvider#getType(Uri)}的返回值
+         */
+        @NonNull
+        public Route setMimeType(@NonNull String mimeType) {
+            mMimeType = mimeType;
+            return this;
+        }
+
+        /**
+         * 以"#"结尾的路由设置主键列后，最后一段会转换为该列的等值查询
+         */
+        @NonNull
+        public Route setIdColumn(@NonNull String idColumn) {
+            if (!mEndsWithNumber) {
+                throw new IllegalStateException("id column requires a route ending with #:" + mPattern);
+            }
+            mIdColumn = idColumn;
+            return this;
+        }
+
+        @NonNull
+        public String getPattern() {
+            return mPattern;
+        }
+
+        @NonNull
+        public String getTable() {
+            return mTable;
+        }
+
+        @Nullable
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        @Nullable
+        public String getIdColumn() {
+            return mIdColumn;
+        }
+
+        public long getCallCount() {
+            return mCallCount.get();
+        }
+
+        /**
+         * @return insert/delete/update影响的行数之和，query返回的行数不计入
+         */
+        public long getRowCount() {
+            return mRowCount.get();
+        }
+
+        public long getTotalTimeNanos() {
+            return mTotalTimeNanos.get();
+        }
+
+        public long getMaxTimeNanos() {
+            return mMaxTimeNanos.get();
+        }
+
+        void record(long timeNanos, int rows) {
+            mCallCount.incrementAndGet();
+            mTotalTimeNanos.addAndGet(timeNanos);
+            if (rows > 0) {
+                mRowCount.addAndGet(rows);
+            }
+            long max = mMaxTimeNanos.get();
+            while (timeNanos > max && !mMaxTimeNanos.compareAndSet(max, timeNanos)) {
+                max = mMaxTimeNanos.get();
+            }
+        }
+
+        @Override
+        public String toString() {
+            final long calls = getCallCount();
+            return mPattern + " -> " + mTable + " calls=" + calls + " rows=" + getRowCount()
+                    + " avgUs=" + (calls == 0 ? 0 : getTotalTimeNanos() / calls / 1000)
+                    + " maxUs=" + getMaxTimeNanos() / 1000;
+        }
+    }
+
+    /**
+     * 一次匹配的结果
+     */
+    public static class Match {
+        private final Route mRoute;
+        private final List<String> mParameters;
+
+        private Match(Route route, List<String> parameters) {
+            mRoute = route;
+            mParameters = parameters;
+        }
+
+        @NonNull
+        public Route getRoute() {
+            return mRoute;
+        }
+
+        /**
+         * @return 第index个通配段的值
+         */
+        public String getParameter(int index) {
+            return mParameters.get(index);
+        }
+
+        public int getParameterCount() {
+            return mParameters.size();
+        }
+
+        /**
+         * @return 是否可以使用主键查询
+         */
+        public boolean hasId() {
+            return mRoute.mIdColumn != null && !mParameters.isEmpty();
+        }
+
+        public long getId() {
+            return hasId() ? Long.parseLong(mParameters.get(mParameters.size() - 1)) : -1L;
+        }
+
+        /**
+         * 将主键条件合并到selection中
+         */
+        @Nullable
+        String buildSelection(@Nullable String selection) {
+            if (!hasId()) {
+                return selection;
+            }
+            if (TextUtils.isEmpty(selection)) {
+                return mRoute.mIdColumn + "=?";
+            }
+            return mRoute.mIdColumn + "=? AND (" + selection + ")";
+        }
+
+        @Nullable
+        String[] buildSelectionArgs(@Nullable String[] selectionArgs) {
+            if (!hasId()) {
+                return selectionArgs;
+            }
+            final int length = selectionArgs == null ? 0 : selectionArgs.length;
+            final String[] args = new String[length + 1];
+            args[0] = mParameters.get(mParameters.size() - 1);
+            if (length > 0) {
+                System.arraycopy(selectionArgs, 0, args, 1, length);
+            }
+            return args;
+        }
+    }
+}
@@ -22,10 +22,10 @@ import android.content.Context;
 import android.database.Cursor;
 
 class WCDBDatabaseInternal extends SQLiteOpenHelper {
-    private IDatabaseContext mDatabaseContext;
+    private IManagedDatabaseContext mDatabaseContext;
 
     WCDBDatabaseInternal(Context context, String name, int version,
-                                 IDatabaseContext databaseContext) {
+                                 IManagedDatabaseContext databaseContext) {
         super(context, name, null, version);
         mDatabaseContext = databaseContext;
     }
@@ -40,13 +40,30 @@ class WCDBDatabaseInternal extends SQLiteOpenHelper {
         mDatabaseContext.upgrade(new WCDBDatabaseOperation(db), oldVersion, newVersion);
     }
 
+    @Override
+    public final void onConfigure(SQLiteDatabase db) {
+        applyConfig(db, mDatabaseContext.getDatabaseConfig());
+    }
+
     @Override
     public final void onOpen(SQLiteDatabase db) {
-        db.enableWriteAheadLogging();
         mDatabaseContext.open(new WCDBDatabaseOperation(db));
     }
 
-    static class WCDBDatabaseOperation implements IDatabaseOperation {
+    void applyConfig(SQLiteDatabase db, DatabaseConfig config) {
+        final WCDBDatabaseOperation databaseOperation = new WCDBDatabaseOperation(db);
+        config.applyFileFormat(databaseOperation);
+        if (config.isWriteAheadLogging() != db.isWriteAheadLoggingEnabled()) {
+            if (config.isWriteAheadLogging()) {
+                db.enableWriteAheadLogging();
+            } else {
+                db.disableWriteAheadLogging();
+            }
+        }
+        config.applyPragmas(databaseOperation);
+    }
+
+    static class WCDBDatabaseOperation implements ITransactionDatabaseOperation {
         private final SQLiteDatabase mSQLiteDatabase;
 
         WCDBDatabaseOperation(SQLiteDatabase sqliteDatabase) {
@@ -83,5 +100,25 @@ class WCDBDatabaseInternal extends SQLiteOpenHelper {
         public void execSQL(String sql) {
             mSQLiteDatabase.execSQL(sql);
         }
+
+        @Override
+        public void beginTransaction() {
+            mSQLiteDatabase.beginTransaction();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            mSQLiteDatabase.setTransactionSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            mSQLiteDatabase.endTransaction();
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return mSQLiteDatabase.inTransaction();
+        }
     }
 }
\ No newline at end of file
@@ -14,12 +14,11 @@
 
 package com.yqman.persistence.android.file;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import com.yqman.persistence.file.FileAccessErrException;
 import com.yqman.persistence.file.IDirectoryVisitor;
@@ -27,72 +26,211 @@ import com.yqman.persistence.file.IFileVisitor;
 import com.yqman.persistence.android.FileTools;
 
 import android.annotation.TargetApi;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
+import android.provider.DocumentsContract;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.provider.DocumentFile;
+import android.text.TextUtils;
+import android.util.Log;
 
 @TargetApi(Build.VERSION_CODES.N)
-public class AndroidDirectory implements IDirectoryVisitor {
+public class AndroidDirectory implements IDirectoryVisitor, IDirectoryListing, IDirectoryTree {
+    private static final String TAG = "AndroidDirectory";
+
     private DocumentFile mDocumentFile;
     private Context mContext;
+    private volatile DocumentSnapshot mSnapshot;
+    private final FileCopier mFileCopier = new FileCopier();
 
     public AndroidDirectory(Context context, Uri treeUri) throws FileAccessErrException {
         this(context, DocumentFile.fromTreeUri(context, treeUri));
     }
 
     public AndroidDirectory(Context context, DocumentFile file) throws FileAccessErrException {
+        this(context, file, null);
+    }
+
+    /**
+     * @param snapshot 列举父目录时已经得到的属性，为null时在构造时查询一次
+     */
+    public AndroidDirectory(Context context, DocumentFile file, @Nullable DocumentSnapshot snapshot)
+            throws FileAccessErrException {
         mContext = context;
         mDocumentFile = file;
-        if (!mDocumentFile.isDirectory()) {
+        mSnapshot = snapshot != null ? snapshot : DocumentSnapshot.query(context, file);
+        if (!mSnapshot.isDirectory()) {
             throw new FileAccessErrException("file is not directory");
         }
     }
 
+    /**
+     * 属性来自内存中的快照，目录被外部修改后需要调用{@link #refresh()}
+     */
+    @NonNull
+    public DocumentSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * 重新查询目录自身的属性，子文件与子目录的属性在每次列举时重新查询
+     */
+    public void refresh() {
+        mSnapshot = DocumentSnapshot.query(mContext, mDocumentFile);
+    }
+
     @Override
     public IFileVisitor createNewFile(String displayName) throws FileAccessErrException {
         DocumentFile file = mDocumentFile.createFile(FileTools.getTypeForName(displayName), displayName);
         return new AndroidFile(mContext, file);
     }
 
+    @NonNull
     @Override
-    public boolean copyFile(IFileVisitor sourceFile, IDirectoryVisitor targetDir) throws FileAccessErrException {
-        IFileVisitor targetFile = targetDir.createNewFile(sourceFile.getIdentifier());
-        copyData(sourceFile, targetFile);
-        return true;
+    public AndroidDirectory createDirectory(@NonNull String displayName) throws FileAccessErrException {
+        AndroidDirectory existing = findDirectory(displayName);
+        if (existing != null) {
+            return existing;
+        }
+        DocumentFile directory = mDocumentFile.createDirectory(displayName);
+        if (directory == null) {
+            throw new FileAccessErrException("create directory failed:" + displayName);
+        }
+        return new AndroidDirectory(mContext, directory);
     }
 
-    private void copyData(IFileVisitor sourceFile, IFileVisitor targetFile) throws FileAccessErrException {
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(sourceFile.getOutputStream(false)));
-        BufferedReader reader = new BufferedReader(new InputStreamReader(targetFile.getInputStream()));
-        try {
-            int data = reader.read();
-            while (data != -1) {
-                writer.write(data);
-                data = reader.read();
+    /**
+     * 一次列举加一次属性查询按名称查找，DocumentFile.findFile会逐个查询子文档的名称
+     */
+    @Nullable
+    @Override
+    public AndroidDirectory findDirectory(@NonNull String displayName) {
+        ArrayList<IDirectoryVisitor> directories = new ArrayList<>();
+        listChildren(new ArrayList<IFileVisitor>(), directories);
+        for (IDirectoryVisitor directory : directories) {
+            if (displayName.equals(directory.getDisplayName())) {
+                return (AndroidDirectory) directory;
             }
-        } catch (IOException e) {
-            throw new FileAccessErrException(e.getMessage());
-        } finally {
-            try {
-                writer.close();
-                reader.close();
-            } catch (IOException e) {
-                // do nothing
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public AndroidFile findFile(@NonNull String displayName) {
+        ArrayList<IFileVisitor> files = new ArrayList<>();
+        listChildren(files, new ArrayList<IDirectoryVisitor>());
+        for (IFileVisitor file : files) {
+            if (displayName.equals(file.getDisplayName())) {
+                return (AndroidFile) file;
             }
         }
+        return null;
+    }
+
+    @Override
+    public boolean copyFile(IFileVisitor sourceFile, IDirectoryVisitor targetDir) throws FileAccessErrException {
+        return copyFile(sourceFile, targetDir, null);
+    }
+
+    /**
+     * 按字节复制文件，失败或取消时删除已创建的目标文件
+     */
+    public boolean copyFile(IFileVisitor sourceFile, IDirectoryVisitor targetDir,
+                            @Nullable FileCopier.ICopyListener listener) throws FileAccessErrException {
+        IFileVisitor targetFile = targetDir.createNewFile(sourceFile.getIdentifier());
+        try {
+            mFileCopier.copy(sourceFile, targetFile, listener);
+        } catch (FileAccessErrException e) {
+            targetDir.deleteFile(targetFile);
+            throw e;
+        }
+        return true;
     }
 
     @Override
     public boolean moveFile(IFileVisitor sourceFile, IDirectoryVisitor targetDir) throws FileAccessErrException {
-        copyFile(sourceFile, targetDir);
-        deleteFile(sourceFile);
+        move(sourceFile, targetDir, null);
         return true;
     }
 
+    public boolean moveFile(IFileVisitor sourceFile, IDirectoryVisitor targetDir,
+                            @Nullable FileCopier.ICopyListener listener) throws FileAccessErrException {
+        move(sourceFile, targetDir, listener);
+        return true;
+    }
+
+    /**
+     * 移动当前目录下的文件，优先使用不复制内容的方式：
+     * 本地文件在同一分区内直接改名，同一个DocumentsProvider内使用{@link DocumentsContract#moveDocument}，
+     * 都不支持时才复制后删除
+     * @return 实际采用的方式
+     */
+    @NonNull
+    public MoveStrategy move(IFileVisitor sourceFile, IDirectoryVisitor targetDir,
+                             @Nullable FileCopier.ICopyListener listener) throws FileAccessErrException {
+        if (sourceFile instanceof AndroidFile && targetDir instanceof AndroidDirectory) {
+            final Uri sourceUri = ((AndroidFile) sourceFile).getUri();
+            final Uri targetUri = ((AndroidDirectory) targetDir).getUri();
+            if (renameLocalFile(sourceUri, targetUri)) {
+                return MoveStrategy.RENAME;
+            }
+            if (moveDocument(sourceUri, targetUri)) {
+                return MoveStrategy.DOCUMENT_MOVE;
+            }
+        }
+        copyFile(sourceFile, targetDir, listener);
+        deleteFile(sourceFile);
+        return MoveStrategy.COPY_DELETE;
+    }
+
+    /**
+     * file://的文件在同一分区内改名，跨分区时renameTo返回false
+     */
+    private boolean renameLocalFile(Uri sourceUri, Uri targetDirUri) {
+        if (!ContentResolver.SCHEME_FILE.equals(sourceUri.getScheme())
+                || !ContentResolver.SCHEME_FILE.equals(targetDirUri.getScheme())) {
+            return false;
+        }
+        final File source = new File(sourceUri.getPath());
+        final File target = new File(targetDirUri.getPath(), source.getName());
+        // renameTo会覆盖已存在的文件，这里与copyFile保持一致，不覆盖
+        return !target.exists() && source.renameTo(target);
+    }
+
+    /**
+     * 同一个DocumentsProvider内移动，provider不支持移动(没有FLAG_SUPPORTS_MOVE)时返回false
+     */
+    private boolean moveDocument(Uri sourceUri, Uri targetDirUri) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N
+                || !ContentResolver.SCHEME_CONTENT.equals(sourceUri.getScheme())
+                || !TextUtils.equals(sourceUri.getAuthority(), targetDirUri.getAuthority())
+                || !DocumentsContract.isDocumentUri(mContext, sourceUri)) {
+            return false;
+        }
+        try {
+            return DocumentsContract.moveDocument(mContext.getContentResolver(), sourceUri, getUri(), targetDirUri)
+                    != null;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (RuntimeException e) {
+            // provider未实现moveDocument时抛出UnsupportedOperationException等异常
+            Log.d(TAG, "moveDocument unsupported by " + sourceUri.getAuthority(), e);
+            return false;
+        }
+    }
+
     @Override
     public boolean deleteFile(IFileVisitor targetFile) {
-        return mDocumentFile.findFile(targetFile.getIdentifier()).delete();
+        if (targetFile instanceof AndroidFile) {
+            // findFile会逐个查询子文档的名称，已知uri时直接删除
+            return ((AndroidFile) targetFile).delete();
+        }
+        DocumentFile file = mDocumentFile.findFile(targetFile.getIdentifier());
+        return file != null && file.delete();
     }
 
     @Override
@@ -100,14 +238,18 @@ public class AndroidDirectory implements IDirectoryVisitor {
         return mDocumentFile.getUri().toString();
     }
 
+    public Uri getUri() {
+        return mDocumentFile.getUri();
+    }
+
     @Override
     public String getDisplayName() {
-        return mDocumentFile.getName();
+        return mSnapshot.getDisplayName();
     }
 
     @Override
     public long getMTime() {
-        return mDocumentFile.lastModified();
+        return mSnapshot.getMTime();
     }
 
     @Override
@@ -122,27 +264,49 @@ public class AndroidDirectory implements IDirectoryVisitor {
     @Override
     public ArrayList<IFileVisitor> listFiles() {
         ArrayList<IFileVisitor> fileVisitors = new ArrayList<>();
-        for(DocumentFile file: mDocumentFile.listFiles()) {
-            if (!file.isDirectory()) {
-                fileVisitors.add(new AndroidFile(mContext, file));
-            }
-        }
+        listChildren(fileVisitors, new ArrayList<IDirectoryVisitor>());
         return fileVisitors;
     }
 
     @Override
     public ArrayList<IDirectoryVisitor> listDirectories() {
         ArrayList<IDirectoryVisitor> dirVisitors = new ArrayList<>();
-        for(DocumentFile file: mDocumentFile.listFiles()) {
-            if (file.isDirectory()) {
+        listChildren(new ArrayList<IFileVisitor>(), dirVisitors);
+        return dirVisitors;
+    }
+
+    /**
+     * 一次列举加一次属性查询，子文件与子目录的属性都来自该次查询的快照
+     */
+    @Override
+    public void listChildren(@NonNull List<IFileVisitor> files, @NonNull List<IDirectoryVisitor> directories) {
+        final Map<Uri, DocumentSnapshot> snapshots = DocumentSnapshot.queryChildren(mContext, mDocumentFile);
+        for (DocumentFile file : mDocumentFile.listFiles()) {
+            DocumentSnapshot snapshot = snapshots.get(file.getUri());
+            if (snapshot == null) {
+                snapshot = DocumentSnapshot.query(mContext, file);
+            }
+            if (snapshot.isDirectory()) {
                 try {
-                    dirVisitors.add(new AndroidDirectory(mContext, file));
+                    directories.add(new AndroidDirectory(mContext, file, snapshot));
                 } catch (FileAccessErrException e) {
                     // do not handle
                 }
+            } else {
+                files.add(new AndroidFile(mContext, file, snapshot));
             }
         }
-        return dirVisitors;
     }
 
+    /**
+     * {@link #move}实际采用的方式
+     */
+    public enum MoveStrategy {
+        /** 本地文件直接改名 */
+        RENAME,
+        /** DocumentsProvider内部移动 */
+        DOCUMENT_MOVE,
+        /** 复制内容后删除源文件 */
+        COPY_DELETE
+    }
 }
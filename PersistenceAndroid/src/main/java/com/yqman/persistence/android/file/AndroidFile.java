@@ -16,31 +16,71 @@ package com.yqman.persistence.android.file;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
 
 import com.yqman.persistence.file.FileAccessErrException;
 import com.yqman.persistence.file.IDirectoryVisitor;
 import com.yqman.persistence.file.IFileVisitor;
 
 import android.annotation.TargetApi;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.net.Uri;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.provider.DocumentFile;
 
 @TargetApi(Build.VERSION_CODES.N)
-public class AndroidFile implements IFileVisitor {
+public class AndroidFile implements IFileVisitor, IFileDescriptorProvider, IRandomAccess,
+        IDurableWrite {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private DocumentFile mDocumentFile;
     private Context mContext;
+    private volatile DocumentSnapshot mSnapshot;
 
     public AndroidFile(Context context, DocumentFile documentFile) {
+        this(context, documentFile, null);
+    }
+
+    /**
+     * @param snapshot 列举目录时已经得到的属性，为null时第一次读取属性时查询一次
+     */
+    public AndroidFile(Context context, DocumentFile documentFile, @Nullable DocumentSnapshot snapshot) {
         mContext = context;
         mDocumentFile = documentFile;
+        mSnapshot = snapshot;
+    }
+
+    /**
+     * 属性来自内存中的快照，文件被外部修改后需要调用{@link #refresh()}
+     */
+    @NonNull
+    public DocumentSnapshot getSnapshot() {
+        DocumentSnapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            snapshot = DocumentSnapshot.query(mContext, mDocumentFile);
+            mSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * 重新查询所有属性
+     */
+    public void refresh() {
+        mSnapshot = DocumentSnapshot.query(mContext, mDocumentFile);
     }
 
     @Override
@@ -68,8 +108,8 @@ public class AndroidFile implements IFileVisitor {
                 throw new FileAccessErrException("can not find file");
             }
             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-            writer.newLine();
             writer.write(value);
+            writer.newLine();
             writer.close();
         } catch (FileNotFoundException e) {
             throw new FileAccessErrException(e.getMessage());
@@ -80,8 +120,11 @@ public class AndroidFile implements IFileVisitor {
 
     @Override
     public OutputStream getOutputStream(boolean isAppendMode) throws FileAccessErrException {
+        // 写入会改变大小与修改时间，下一次读取属性时重新查询
+        mSnapshot = null;
         try {
-            return mContext.getContentResolver().openOutputStream(mDocumentFile.getUri());
+            return mContext.getContentResolver().openOutputStream(mDocumentFile.getUri(),
+                    isAppendMode ? "wa" : "wt");
         } catch (FileNotFoundException e) {
             throw new FileAccessErrException(e.getMessage());
         }
@@ -96,24 +139,100 @@ public class AndroidFile implements IFileVisitor {
         }
     }
 
+    @NonNull
+    @Override
+    public ParcelFileDescriptor openFileDescriptor(@NonNull String mode) throws FileNotFoundException {
+        ParcelFileDescriptor descriptor = mContext.getContentResolver().openFileDescriptor(mDocumentFile.getUri(),
+                mode);
+        if (descriptor == null) {
+            throw new FileNotFoundException("provider returned null descriptor:" + mDocumentFile.getUri());
+        }
+        return descriptor;
+    }
+
+    boolean delete() {
+        return mDocumentFile.delete();
+    }
+
+    /**
+     * file://文件写入临时文件后rename覆盖；DocumentsProvider没有覆盖式的rename，
+     * 只能截断后写入并fsync，保证返回时已落盘，但写入过程中崩溃仍可能留下不完整的内容
+     */
+    @Override
+    public void writeStringAtomically(@NonNull String value) throws FileAccessErrException {
+        mSnapshot = null;
+        final Uri uri = mDocumentFile.getUri();
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            new RawFile(new File(uri.getPath())).writeStringAtomically(value);
+            return;
+        }
+        ParcelFileDescriptor descriptor = null;
+        FileOutputStream outputStream = null;
+        try {
+            descriptor = openFileDescriptor("wt");
+            outputStream = new FileOutputStream(descriptor.getFileDescriptor());
+            outputStream.write(value.getBytes(UTF_8));
+            outputStream.flush();
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        } finally {
+            FileCopier.closeQuietly(outputStream);
+            FileCopier.closeQuietly(descriptor);
+        }
+    }
+
+    @NonNull
+    @Override
+    public FileAppender openAppender() throws FileAccessErrException {
+        mSnapshot = null;
+        return FileAppender.open(this);
+    }
+
+    @NonNull
+    @Override
+    public MappedByteBuffer mapReadOnly() throws FileAccessErrException {
+        return PositionalReader.map(this, 0, -1);
+    }
+
+    @NonNull
+    @Override
+    public MappedByteBuffer map(long position, long size) throws FileAccessErrException {
+        return PositionalReader.map(this, position, size);
+    }
+
+    @NonNull
+    @Override
+    public PositionalReader openReader() throws FileAccessErrException {
+        return PositionalReader.open(this);
+    }
+
     @Override
     public String getIdentifier() {
-        return mDocumentFile.getName();
+        return getSnapshot().getDisplayName();
+    }
+
+    public Uri getUri() {
+        return mDocumentFile.getUri();
     }
 
     @Override
     public String getDisplayName() {
-        return mDocumentFile.getName();
+        return getSnapshot().getDisplayName();
+    }
+
+    public String getMimeType() {
+        return getSnapshot().getMimeType();
     }
 
     @Override
     public long getSize() {
-        return mDocumentFile.length();
+        return getSnapshot().getSize();
     }
 
     @Override
     public long getMTime() {
-        return mDocumentFile.lastModified();
+        return getSnapshot().getMTime();
     }
 
     @Override
@@ -0,0 +1,427 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yqman.persistence.file.IDirectoryVisitor;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 文件访问的异步接口，所有操作在有界的I/O线程池上执行，返回可取消的Future
+ * 同一存储卷上同时执行的操作数受限，超出的操作在该卷的队列中等待，不占用线程池的线程，
+ * 慢速的存储卷(SD卡、USB)不会占满线程池而阻塞其他卷上的操作
+ */
+public class AsyncFileIO {
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final int DEFAULT_VOLUME_CONCURRENCY = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile AsyncFileIO sDefault;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mVolumeConcurrency;
+    private final HashMap<String, VolumeQueue> mVolumeQueues = new HashMap<>();
+    private final FileCopier mFileCopier = new FileCopier();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private boolean mShutdown;
+
+    /**
+     * @param poolSize I/O线程数
+     * @param volumeConcurrency 每个存储卷上同时执行的操作数
+     */
+    public AsyncFileIO(int poolSize, int volumeConcurrency) {
+        if (poolSize <= 0 || volumeConcurrency <= 0) {
+            throw new IllegalArgumentException("pool size and volume concurrency must be positive");
+        }
+        mVolumeConcurrency = volumeConcurrency;
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "file-io-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    public static AsyncFileIO getDefault() {
+        if (sDefault == null) {
+            synchronized(AsyncFileIO.class) {
+                if (sDefault == null) {
+                    sDefault = new AsyncFileIO(DEFAULT_POOL_SIZE, DEFAULT_VOLUME_CONCURRENCY);
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * 读取整个文件
+     */
+    @NonNull
+    public Future<byte[]> readAsync(@NonNull final IFileVisitor file, @Nullable ICallback<byte[]> callback) {
+        return submit(volumeOf(file), new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return read(file);
+            }
+        }, callback);
+    }
+
+    /**
+     * 以UTF-8读取整个文件
+     */
+    @NonNull
+    public Future<String> readStringAsync(@NonNull final IFileVisitor file, @Nullable ICallback<String> callback) {
+        return submit(volumeOf(file), new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return new String(read(file), UTF_8);
+            }
+        }, callback);
+    }
+
+    /**
+     * 写入字符串，非追加模式且文件支持{@link IDurableWrite}时整体原子替换
+     */
+    @NonNull
+    public Future<Void> writeAsync(@NonNull final IFileVisitor file, @NonNull final String value,
+                                   final boolean isAppendMode, @Nullable ICallback<Void> callback) {
+        return submit(volumeOf(file), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (!isAppendMode && file instanceof IDurableWrite) {
+                    ((IDurableWrite) file).writeStringAtomically(value);
+                } else {
+                    file.writeString(value, isAppendMode);
+                }
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * 复制文件内容，cancel(true)取消Future会在当前块复制完成后停止
+     * @param listener 进度回调，在I/O线程上调用
+     * @return 复制的字节数
+     */
+    @NonNull
+    public Future<Long> copyAsync(@NonNull final IFileVisitor source, @NonNull final IFileVisitor target,
+                                  @Nullable final FileCopier.ICopyListener listener,
+                                  @Nullable ICallback<Long> callback) {
+        return submit(volumeOf(source), new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return mFileCopier.copy(source, target, new FileCopier.ICopyListener() {
+                    @Override
+                    public void onProgress(long copied, long total) {
+                        if (listener != null) {
+                            listener.onProgress(copied, total);
+                        }
+                    }
+
+                    @Override
+                    public boolean isCanceled() {
+                        // Future.cancel(true)会中断执行线程
+                        return Thread.currentThread().isInterrupted()
+                                || (listener != null && listener.isCanceled());
+                    }
+                });
+            }
+        }, callback);
+    }
+
+    /**
+     * 列举目录，实现了{@link IDirectoryListing}的目录只列举一次
+     */
+    @NonNull
+    public Future<Children> listAsync(@NonNull final IDirectoryVisitor directory,
+                                      @Nullable ICallback<Children> callback) {
+        return submit(volumeOf(directory), new Callable<Children>() {
+            @Override
+            public Children call() throws Exception {
+                final Children children = new Children();
+                if (directory instanceof IDirectoryListing) {
+                    ((IDirectoryListing) directory).listChildren(children.mFiles, children.mDirectories);
+                } else {
+                    children.mFiles.addAll(directory.listFiles());
+                    children.mDirectories.addAll(directory.listDirectories());
+                }
+                return children;
+            }
+        }, callback);
+    }
+
+    /**
+     * 在指定存储卷的队列上执行任意操作
+     * @param volume 存储卷标识，相同标识的操作共享并发数限制
+     */
+    @NonNull
+    public <T> Future<T> submit(@NonNull String volume, @NonNull Callable<T> callable,
+                                @Nullable final ICallback<T> callback) {
+        final CallbackFutureTask<T> task = new CallbackFutureTask<>(callable, callback);
+        final VolumeQueue queue;
+        synchronized(mVolumeQueues) {
+            if (mShutdown) {
+                // 关闭后提交的操作直接取消，get()抛出CancellationException而不是永远等待
+                task.cancel(false);
+                return task;
+            }
+            VolumeQueue existing = mVolumeQueues.get(volume);
+            if (existing == null) {
+                existing = new VolumeQueue();
+                mVolumeQueues.put(volume, existing);
+            }
+            queue = existing;
+        }
+        queue.enqueue(task);
+        return task;
+    }
+
+    /**
+     * 不再接受新的操作，正在执行的操作继续执行，还在卷队列中等待的操作被取消
+     */
+    public void shutdown() {
+        final ArrayList<VolumeQueue> queues;
+        synchronized(mVolumeQueues) {
+            mShutdown = true;
+            queues = new ArrayList<>(mVolumeQueues.values());
+        }
+        for (VolumeQueue queue : queues) {
+            queue.cancelPending();
+        }
+        mExecutor.shutdown();
+    }
+
+    private byte[] read(IFileVisitor file) throws Exception {
+        final InputStream inputStream = file.getInputStream();
+        if (inputStream == null) {
+            throw new FileNotFoundException("can not open " + file.getIdentifier());
+        }
+        try {
+            final long size = file.getSize();
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+                    size > 0 && size < Integer.MAX_VALUE ? (int) size : 8192);
+            mFileCopier.copyStream(inputStream, outputStream, size, null);
+            return outputStream.toByteArray();
+        } finally {
+            FileCopier.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * 存储卷标识：本地文件取挂载点的前两级路径，DocumentsProvider的文档取authority与根文档ID的卷前缀
+     */
+    @NonNull
+    static String volumeOf(@NonNull Object visitor) {
+        if (visitor instanceof RawFile) {
+            return volumeOf(((RawFile) visitor).getFile());
+        }
+        if (visitor instanceof RawDirectory) {
+            return volumeOf(((RawDirectory) visitor).getFile());
+        }
+        Uri uri = null;
+        if (visitor instanceof AndroidFile) {
+            uri = ((AndroidFile) visitor).getUri();
+        } else if (visitor instanceof AndroidDirectory) {
+            uri = ((AndroidDirectory) visitor).getUri();
+        }
+        if (uri == null) {
+            return "default";
+        }
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return volumeOf(new File(uri.getPath()));
+        }
+        String documentId;
+        try {
+            documentId = DocumentsContract.getDocumentId(uri);
+        } catch (IllegalArgumentException e) {
+            documentId = "";
+        }
+        // ExternalStorageProvider的文档ID形如"primary:DCIM/a.jpg"，冒号前是卷
+        final int colon = documentId.indexOf(':');
+        return uri.getAuthority() + "/" + (colon > 0 ? documentId.substring(0, colon) : "");
+    }
+
+    private static String volumeOf(File file) {
+        final String path = file.getAbsolutePath();
+        int end = path.indexOf('/', 1);
+        end = end < 0 ? -1 : path.indexOf('/', end + 1);
+        return "file:" + (end < 0 ? path : path.substring(0, end));
+    }
+
+    /**
+     * 一个存储卷上的操作队列，执行中的操作数不超过mVolumeConcurrency
+     * mRunning在操作交给线程池时加一，在操作结束或被线程池拒绝时减一
+     */
+    private class VolumeQueue {
+        private final ArrayDeque<FutureTask<?>> mPending = new ArrayDeque<>();
+        private int mRunning;
+
+        void enqueue(FutureTask<?> task) {
+            synchronized(this) {
+                if (mRunning >= mVolumeConcurrency) {
+                    mPending.offer(task);
+                    return;
+                }
+                mRunning++;
+            }
+            execute(task);
+        }
+
+        void cancelPending() {
+            final ArrayList<FutureTask<?>> pending;
+            synchronized(this) {
+                pending = new ArrayList<>(mPending);
+                mPending.clear();
+            }
+            for (FutureTask<?> task : pending) {
+                task.cancel(false);
+            }
+        }
+
+        /**
+         * 占用一个名额执行task，被拒绝时取消task并把名额交给下一个等待的操作
+         */
+        private void execute(FutureTask<?> task) {
+            while (task != null) {
+                try {
+                    mExecutor.execute(wrap(task));
+                    return;
+                } catch (RejectedExecutionException e) {
+                    task.cancel(false);
+                    task = pollOrRelease();
+                }
+            }
+        }
+
+        private Runnable wrap(final FutureTask<?> task) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        execute(pollOrRelease());
+                    }
+                }
+            };
+        }
+
+        /**
+         * @return 下一个等待的操作，沿用当前名额；没有时释放名额返回null
+         */
+        private synchronized FutureTask<?> pollOrRelease() {
+            final FutureTask<?> next = mPending.poll();
+            if (next == null) {
+                mRunning--;
+            }
+            return next;
+        }
+    }
+
+    /**
+     * 结束时把结果投递到主线程，被取消的操作不回调
+     */
+    private class CallbackFutureTask<T> extends FutureTask<T> {
+        private final ICallback<T> mCallback;
+
+        CallbackFutureTask(Callable<T> callable, ICallback<T> callback) {
+            super(callable);
+            mCallback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if (mCallback == null || isCancelled()) {
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mCallback.onSuccess(get());
+                    } catch (ExecutionException e) {
+                        mCallback.onError(e.getCause());
+                    } catch (CancellationException e) {
+                        // do nothing
+                    } catch (InterruptedException e) {
+                        // do nothing
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 目录列举的结果
+     */
+    public static class Children {
+        private final ArrayList<IFileVisitor> mFiles = new ArrayList<>();
+        private final ArrayList<IDirectoryVisitor> mDirectories = new ArrayList<>();
+
+        @NonNull
+        public List<IFileVisitor> getFiles() {
+            return mFiles;
+        }
+
+        @NonNull
+        public List<IDirectoryVisitor> getDirectories() {
+            return mDirectories;
+        }
+    }
+
+    /**
+     * 操作结果回调，在主线程上调用
+     */
+    public interface ICallback<T> {
+        void onSuccess(T result);
+
+        void onError(@NonNull Throwable throwable);
+    }
+}
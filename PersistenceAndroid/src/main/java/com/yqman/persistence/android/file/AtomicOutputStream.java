@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.regex.Pattern;
+
+import com.yqman.persistence.file.FileAccessErrException;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+/**
+ * 原子替换文件内容：写入同目录下的临时文件，{@link #commit()}时fsync后rename覆盖目标文件，
+ * API 21及以上再fsync所在目录，保证rename本身也已落盘
+ * 崩溃或断电时目标文件要么是旧内容要么是完整的新内容；API 21以下断电时可能丢失rename，目标文件仍是旧内容
+ * 没有commit就关闭时丢弃临时文件，进程被杀留下的临时文件在下一次打开同一目标时清理
+ */
+public class AtomicOutputStream extends OutputStream {
+    private static final String TAG = "AtomicOutputStream";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // File.createTempFile生成的名字：prefix + 随机数(可能为负) + suffix
+    private static final Pattern TEMP_NAME = Pattern.compile("\\..+-?\\d+\\.tmp");
+    /**
+     * 超过该时间没有修改的临时文件视为残留，避免删除另一个正在写入同一目标的临时文件
+     */
+    private static final long STALE_MILLIS = 10 * 60 * 1000;
+
+    private final File mTarget;
+    private final File mTemp;
+    private final FileOutputStream mOutputStream;
+    private boolean mFinished;
+
+    public AtomicOutputStream(@NonNull File target) throws FileAccessErrException {
+        mTarget = target;
+        deleteStaleTempFiles(target);
+        try {
+            // 临时文件必须与目标在同一目录，rename才是同一分区内的原子操作
+            mTemp = File.createTempFile("." + target.getName(), TEMP_SUFFIX, target.getParentFile());
+            mOutputStream = new FileOutputStream(mTemp);
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        mOutputStream.write(b);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        mOutputStream.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOutputStream.flush();
+    }
+
+    /**
+     * 把已写入的内容落盘并替换目标文件，之后不能再写入
+     */
+    public void commit() throws FileAccessErrException {
+        if (mFinished) {
+            throw new FileAccessErrException("already finished");
+        }
+        mFinished = true;
+        try {
+            mOutputStream.flush();
+            mOutputStream.getFD().sync();
+            mOutputStream.close();
+        } catch (IOException e) {
+            FileCopier.closeQuietly(mOutputStream);
+            mTemp.delete();
+            throw new FileAccessErrException(e.getMessage());
+        }
+        if (!mTemp.renameTo(mTarget)) {
+            mTemp.delete();
+            throw new FileAccessErrException("rename failed:" + mTarget.getAbsolutePath());
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            syncDirectory(mTarget.getAbsoluteFile().getParentFile());
+        }
+    }
+
+    /**
+     * 目录项的修改(rename)需要fsync目录本身才能落盘，java.io无法打开目录，只能通过Os
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void syncDirectory(File directory) throws FileAccessErrException {
+        FileDescriptor descriptor = null;
+        try {
+            descriptor = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            Os.fsync(descriptor);
+        } catch (ErrnoException e) {
+            // 目标文件已经是新内容，只是不能保证断电后仍然如此
+            throw new FileAccessErrException("sync directory failed:" + e.getMessage());
+        } finally {
+            if (descriptor != null) {
+                try {
+                    Os.close(descriptor);
+                } catch (ErrnoException e) {
+                    Log.w(TAG, "close directory failed:" + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 是否是本类生成的临时文件，列举目录时用来过滤
+     */
+    static boolean isTempFile(@NonNull String name) {
+        return TEMP_NAME.matcher(name).matches();
+    }
+
+    private static void deleteStaleTempFiles(File target) {
+        final File parent = target.getAbsoluteFile().getParentFile();
+        final String prefix = "." + target.getName();
+        final File[] children = parent == null ? null : parent.listFiles();
+        if (children == null) {
+            return;
+        }
+        final long staleTime = System.currentTimeMillis() - STALE_MILLIS;
+        for (File child : children) {
+            final String name = child.getName();
+            if (name.startsWith(prefix) && name.endsWith(TEMP_SUFFIX)
+                    && name.substring(prefix.length(), name.length() - TEMP_SUFFIX.length()).matches("-?\\d+")
+                    && child.lastModified() < staleTime && !child.delete()) {
+                Log.w(TAG, "delete stale temp file failed:" + child);
+            }
+        }
+    }
+
+    /**
+     * 放弃写入，目标文件保持不变
+     */
+    public void abort() {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        FileCopier.closeQuietly(mOutputStream);
+        mTemp.delete();
+    }
+
+    @Override
+    public void close() {
+        abort();
+    }
+}
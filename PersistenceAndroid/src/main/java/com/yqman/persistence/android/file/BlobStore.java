@@ -0,0 +1,494 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.yqman.persistence.android.database.BaseWCDBDatabase;
+import com.yqman.persistence.android.database.DatabaseSchema;
+import com.yqman.persistence.android.database.IDatabaseOperation;
+import com.yqman.persistence.android.database.ITransactionDatabaseOperation;
+import com.yqman.persistence.android.database.IndexSchema;
+import com.yqman.persistence.android.database.TableSchema;
+import com.yqman.persistence.file.FileAccessErrException;
+import com.yqman.persistence.file.IDirectoryVisitor;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * 按内容寻址的去重存储：内容的SHA-256作为文件名，相同内容只保存一份
+ * 文件按哈希前两级分目录存放(ab/cd/abcd...)，根目录实现了{@link IDirectoryTree}时才分目录，否则平铺
+ * key到哈希的映射与每个内容的引用计数保存在WCDB中；引用计数归零的内容不会立即删除，
+ * 由后台垃圾回收在延迟后统一删除，期间再次写入相同内容可以直接复用
+ */
+public class BlobStore {
+    private static final String TAG = "BlobStore";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long DEFAULT_GC_DELAY_MILLIS = 30 * 1000;
+
+    private static final String KEY_TABLE = "blob_key";
+    private static final String BLOB_TABLE = "blob";
+    private static final String KEY = "key";
+    private static final String HASH = "hash";
+    private static final String SIZE = "size";
+    private static final String REF_COUNT = "ref_count";
+
+    private static final DatabaseSchema SCHEMA = new DatabaseSchema()
+            .addTable(new TableSchema(KEY_TABLE)
+                    .addColumn(KEY, "TEXT PRIMARY KEY")
+                    .addColumn(HASH, "TEXT not null")
+                    .setWithoutRowId(true)
+                    .addIndex(new IndexSchema("blob_key_hash_index", HASH)))
+            .addTable(new TableSchema(BLOB_TABLE)
+                    .addColumn(HASH, "TEXT PRIMARY KEY")
+                    .addColumn(SIZE, "INTEGER not null")
+                    .addColumn(REF_COUNT, "INTEGER not null")
+                    .setWithoutRowId(true)
+                    .addIndex(new IndexSchema("blob_unreferenced_index", REF_COUNT).setWhere(REF_COUNT + "=0")));
+
+    private final IDirectoryVisitor mRoot;
+    private final BlobDatabase mDatabase;
+    private final Object mLock = new Object();
+    private final ConcurrentHashMap<String, IDirectoryVisitor> mDirectories = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService mExecutor;
+    private final boolean mOwnsExecutor;
+    private final FileCopier mFileCopier = new FileCopier();
+    private long mGcDelayMillis = DEFAULT_GC_DELAY_MILLIS;
+    private ScheduledFuture<?> mScheduledGc;
+    private volatile boolean mClosed;
+
+    /**
+     * @param root 存放内容文件的目录
+     * @param databaseName 保存引用计数的数据库名
+     */
+    public BlobStore(@NonNull Context context, @NonNull IDirectoryVisitor root, @NonNull String databaseName) {
+        this(context, root, databaseName, Executors.newSingleThreadScheduledExecutor(), true);
+    }
+
+    /**
+     * @param executor 执行后台垃圾回收，由调用方负责关闭
+     */
+    public BlobStore(@NonNull Context context, @NonNull IDirectoryVisitor root, @NonNull String databaseName,
+                     @NonNull ScheduledExecutorService executor) {
+        this(context, root, databaseName, executor, false);
+    }
+
+    private BlobStore(Context context, IDirectoryVisitor root, String databaseName,
+                      ScheduledExecutorService executor, boolean ownsExecutor) {
+        mRoot = root;
+        mDatabase = new BlobDatabase(context, databaseName);
+        mExecutor = executor;
+        mOwnsExecutor = ownsExecutor;
+    }
+
+    /**
+     * 取消等待中的垃圾回收，关闭内部创建的线程池和数据库，之后不能再使用
+     * 引用计数已归零但未回收的内容在下次打开后由{@link #gc()}或新的释放触发回收
+     */
+    public void close() {
+        synchronized(mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mScheduledGc != null) {
+                mScheduledGc.cancel(false);
+                mScheduledGc = null;
+            }
+            mDatabase.close();
+        }
+        if (mOwnsExecutor) {
+            mExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 引用计数归零后多久执行垃圾回收
+     */
+    public BlobStore setGcDelay(long delayMillis) {
+        mGcDelayMillis = delayMillis;
+        return this;
+    }
+
+    /**
+     * 保存内容并关联到key，key原来关联的内容引用计数减一
+     * 已有相同内容时只增加引用计数，不写文件
+     * @return 内容的哈希
+     */
+    @NonNull
+    public String put(@NonNull String key, @NonNull byte[] data) throws FileAccessErrException {
+        final String hash = hash(data);
+        boolean released = false;
+        synchronized(mLock) {
+            checkOpen();
+            final ITransactionDatabaseOperation operation = mDatabase.getDatabase(true);
+            final String oldHash = queryHash(operation, key);
+            if (hash.equals(oldHash)) {
+                return hash;
+            }
+            final long refCount = queryRefCount(operation, hash);
+            if (refCount < 0) {
+                writeBlob(hash, data);
+            }
+            operation.beginTransaction();
+            try {
+                if (refCount < 0) {
+                    final ContentValues values = new ContentValues();
+                    values.put(HASH, hash);
+                    values.put(SIZE, data.length);
+                    values.put(REF_COUNT, 1);
+                    operation.insert(BLOB_TABLE, null, values);
+                } else {
+                    updateRefCount(operation, hash, refCount + 1);
+                }
+                final ContentValues values = new ContentValues();
+                values.put(KEY, key);
+                values.put(HASH, hash);
+                if (oldHash == null) {
+                    operation.insert(KEY_TABLE, null, values);
+                } else {
+                    operation.update(KEY_TABLE, values, KEY + "=?", new String[] {key});
+                    released = release(operation, oldHash);
+                }
+                operation.setTransactionSuccessful();
+            } finally {
+                operation.endTransaction();
+            }
+        }
+        if (released) {
+            scheduleGc();
+        }
+        return hash;
+    }
+
+    @NonNull
+    public String putString(@NonNull String key, @NonNull String value) throws FileAccessErrException {
+        return put(key, value.getBytes(UTF_8));
+    }
+
+    /**
+     * @return key没有关联内容时为null
+     */
+    @Nullable
+    public byte[] get(@NonNull String key) throws FileAccessErrException {
+        final InputStream inputStream = openInputStream(key);
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            mFileCopier.copyStream(inputStream, outputStream, -1, null);
+            return outputStream.toByteArray();
+        } finally {
+            FileCopier.closeQuietly(inputStream);
+        }
+    }
+
+    @Nullable
+    public String getString(@NonNull String key) throws FileAccessErrException {
+        final byte[] data = get(key);
+        return data == null ? null : new String(data, UTF_8);
+    }
+
+    @Nullable
+    public InputStream openInputStream(@NonNull String key) throws FileAccessErrException {
+        final String hash = getHash(key);
+        if (hash == null) {
+            return null;
+        }
+        final IFileVisitor file = findBlob(hash);
+        if (file == null) {
+            throw new FileAccessErrException("blob missing:" + hash);
+        }
+        return file.getInputStream();
+    }
+
+    @Nullable
+    public String getHash(@NonNull String key) {
+        checkOpen();
+        return queryHash(mDatabase.getDatabase(false), key);
+    }
+
+    /**
+     * 解除key的关联，内容的引用计数归零后由垃圾回收删除
+     * @return key原来有关联的内容
+     */
+    public boolean remove(@NonNull String key) {
+        boolean released;
+        synchronized(mLock) {
+            checkOpen();
+            final ITransactionDatabaseOperation operation = mDatabase.getDatabase(true);
+            final String hash = queryHash(operation, key);
+            if (hash == null) {
+                return false;
+            }
+            operation.beginTransaction();
+            try {
+                operation.delete(KEY_TABLE, KEY + "=?", new String[] {key});
+                released = release(operation, hash);
+                operation.setTransactionSuccessful();
+            } finally {
+                operation.endTransaction();
+            }
+        }
+        if (released) {
+            scheduleGc();
+        }
+        return true;
+    }
+
+    /**
+     * 立即删除所有引用计数为0的内容
+     * @return 删除的内容个数
+     */
+    public int gc() {
+        synchronized(mLock) {
+            checkOpen();
+            final IDatabaseOperation operation = mDatabase.getDatabase(true);
+            final ArrayList<String> hashes = new ArrayList<>();
+            final Cursor cursor = operation.query(BLOB_TABLE, new String[] {HASH}, REF_COUNT + "=0", null, null,
+                    null, null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        hashes.add(cursor.getString(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            int deleted = 0;
+            for (String hash : hashes) {
+                final IFileVisitor file = findBlob(hash);
+                final IDirectoryVisitor directory = getBlobDirectory(hash, false);
+                if (file != null && directory != null && !directory.deleteFile(file)) {
+                    Log.w(TAG, "delete blob failed " + hash);
+                    continue;
+                }
+                operation.delete(BLOB_TABLE, HASH + "=? AND " + REF_COUNT + "=0", new String[] {hash});
+                deleted++;
+            }
+            return deleted;
+        }
+    }
+
+    private void checkOpen() {
+        if (mClosed) {
+            throw new IllegalStateException("blob store closed");
+        }
+    }
+
+    private void scheduleGc() {
+        synchronized(mLock) {
+            if (mClosed || mScheduledGc != null && !mScheduledGc.isDone()) {
+                return;
+            }
+            mScheduledGc = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized(mLock) {
+                        if (!mClosed) {
+                            Log.d(TAG, "gc deleted " + gc());
+                        }
+                    }
+                }
+            }, mGcDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 引用计数减一
+     * @return 引用计数归零
+     */
+    private boolean release(IDatabaseOperation operation, String hash) {
+        final long refCount = queryRefCount(operation, hash);
+        if (refCount <= 0) {
+            return false;
+        }
+        updateRefCount(operation, hash, refCount - 1);
+        return refCount == 1;
+    }
+
+    private static void updateRefCount(IDatabaseOperation operation, String hash, long refCount) {
+        final ContentValues values = new ContentValues();
+        values.put(REF_COUNT, refCount);
+        operation.update(BLOB_TABLE, values, HASH + "=?", new String[] {hash});
+    }
+
+    private static String queryHash(IDatabaseOperation operation, String key) {
+        final Cursor cursor = operation.query(KEY_TABLE, new String[] {HASH}, KEY + "=?", new String[] {key},
+                null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return 内容不存在时为-1
+     */
+    private static long queryRefCount(IDatabaseOperation operation, String hash) {
+        final Cursor cursor = operation.query(BLOB_TABLE, new String[] {REF_COUNT}, HASH + "=?",
+                new String[] {hash}, null, null, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 内容文件先于数据库记录写入；写入后崩溃只会留下没有记录的文件，不会出现记录指向缺失的文件
+     */
+    private void writeBlob(String hash, byte[] data) throws FileAccessErrException {
+        final IDirectoryVisitor directory = getBlobDirectory(hash, true);
+        IFileVisitor file = findFile(directory, hash);
+        if (file == null) {
+            file = directory.createNewFile(hash);
+        }
+        if (file instanceof RawFile) {
+            final AtomicOutputStream outputStream = ((RawFile) file).openAtomicOutputStream();
+            try {
+                outputStream.write(data);
+                outputStream.commit();
+            } catch (IOException e) {
+                throw new FileAccessErrException(e.getMessage());
+            } finally {
+                outputStream.close();
+            }
+            return;
+        }
+        final OutputStream outputStream = file.getOutputStream(false);
+        if (outputStream == null) {
+            throw new FileAccessErrException("can not open blob:" + hash);
+        }
+        try {
+            outputStream.write(data);
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        } finally {
+            FileCopier.closeQuietly(outputStream);
+        }
+    }
+
+    private IFileVisitor findBlob(String hash) {
+        final IDirectoryVisitor directory = getBlobDirectory(hash, false);
+        return directory == null ? null : findFile(directory, hash);
+    }
+
+    /**
+     * @param create 目录不存在时是否创建
+     */
+    private IDirectoryVisitor getBlobDirectory(String hash, boolean create) {
+        if (!(mRoot instanceof IDirectoryTree)) {
+            return mRoot;
+        }
+        final String path = hash.substring(0, 2) + "/" + hash.substring(2, 4);
+        IDirectoryVisitor directory = mDirectories.get(path);
+        if (directory != null) {
+            return directory;
+        }
+        try {
+            final IDirectoryVisitor first = child((IDirectoryTree) mRoot, hash.substring(0, 2), create);
+            if (!(first instanceof IDirectoryTree)) {
+                return first;
+            }
+            directory = child((IDirectoryTree) first, hash.substring(2, 4), create);
+        } catch (FileAccessErrException e) {
+            Log.w(TAG, "create directory failed " + path, e);
+            return null;
+        }
+        if (directory != null) {
+            mDirectories.put(path, directory);
+        }
+        return directory;
+    }
+
+    private static IDirectoryVisitor child(IDirectoryTree parent, String name, boolean create)
+            throws FileAccessErrException {
+        return create ? parent.createDirectory(name) : parent.findDirectory(name);
+    }
+
+    private static IFileVisitor findFile(IDirectoryVisitor directory, String name) {
+        if (directory instanceof IDirectoryTree) {
+            return ((IDirectoryTree) directory).findFile(name);
+        }
+        for (IFileVisitor file : directory.listFiles()) {
+            if (name.equals(file.getDisplayName())) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static String hash(byte[] data) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] bytes = digest.digest(data);
+        final char[] hex = new char[bytes.length * 2];
+        final char[] digits = "0123456789abcdef".toCharArray();
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static class BlobDatabase extends BaseWCDBDatabase {
+
+        BlobDatabase(Context context, String name) {
+            super(context, name, 1);
+        }
+
+        @Override
+        public void create(@NonNull IDatabaseOperation databaseOperation) {
+            SCHEMA.create(databaseOperation);
+        }
+
+        @Override
+        public void upgrade(@NonNull IDatabaseOperation databaseOperation, int oldVersion, int newVersion) {
+            SCHEMA.migrate(databaseOperation);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yqman.persistence.file.FileAccessErrException;
+import com.yqman.persistence.file.IDirectoryVisitor;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+/**
+ * 并行遍历目录树，按批输出文件信息
+ * 每个目录是一个fork-join任务，子目录并行遍历；实现了{@link IDirectoryListing}的目录只列举一次
+ * 批次在遍历线程上串行回调，回调中可以直接批量写入数据库
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class DirectoryCrawler {
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final ForkJoinPool mPool;
+    private final int mBatchSize;
+    private final AtomicBoolean mCanceled = new AtomicBoolean();
+    private final Object mDeliverLock = new Object();
+    private final Object mBufferLock = new Object();
+    private ArrayList<FileMetadata> mBuffer;
+
+    public DirectoryCrawler() {
+        this(new ForkJoinPool(DEFAULT_PARALLELISM), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param pool 遍历使用的线程池，列举目录大多在等待I/O，并行度可以高于CPU核数
+     * @param batchSize 每批回调的文件个数
+     */
+    public DirectoryCrawler(@NonNull ForkJoinPool pool, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive:" + batchSize);
+        }
+        mPool = pool;
+        mBatchSize = batchSize;
+        mBuffer = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * 遍历rootDirectory下的所有文件，遍历结束或取消后返回
+     * @param rootPath 起点的路径，文件路径为rootPath加上相对路径
+     * @return 遍历到的文件个数
+     */
+    public long crawl(@NonNull IDirectoryVisitor rootDirectory, @NonNull String rootPath,
+                      @NonNull IListener listener) {
+        mCanceled.set(false);
+        final AtomicLong count = new AtomicLong();
+        mPool.invoke(new CrawlTask(rootDirectory, rootPath, listener, count));
+        flush(listener);
+        return count.get();
+    }
+
+    /**
+     * 停止遍历，已经开始的目录列举会完成，之后不再回调批次
+     */
+    public void cancel() {
+        mCanceled.set(true);
+    }
+
+    public boolean isCanceled() {
+        return mCanceled.get();
+    }
+
+    private void emit(FileMetadata metadata, IListener listener) {
+        ArrayList<FileMetadata> batch = null;
+        synchronized(mBufferLock) {
+            mBuffer.add(metadata);
+            if (mBuffer.size() >= mBatchSize) {
+                batch = mBuffer;
+                mBuffer = new ArrayList<>(mBatchSize);
+            }
+        }
+        if (batch != null) {
+            deliver(batch, listener);
+        }
+    }
+
+    private void flush(IListener listener) {
+        final ArrayList<FileMetadata> batch;
+        synchronized(mBufferLock) {
+            batch = mBuffer;
+            mBuffer = new ArrayList<>(mBatchSize);
+        }
+        if (!batch.isEmpty()) {
+            deliver(batch, listener);
+        }
+    }
+
+    private void deliver(List<FileMetadata> batch, IListener listener) {
+        synchronized(mDeliverLock) {
+            if (!mCanceled.get()) {
+                listener.onBatch(batch);
+            }
+        }
+    }
+
+    static String childPath(String parentPath, String name) {
+        if (parentPath.isEmpty() || parentPath.endsWith("/")) {
+            return parentPath + name;
+        }
+        return parentPath + "/" + name;
+    }
+
+    private class CrawlTask extends RecursiveAction {
+        private final IDirectoryVisitor mDirectory;
+        private final String mPath;
+        private final IListener mListener;
+        private final AtomicLong mCount;
+
+        private CrawlTask(IDirectoryVisitor directory, String path, IListener listener, AtomicLong count) {
+            mDirectory = directory;
+            mPath = path;
+            mListener = listener;
+            mCount = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (mCanceled.get()) {
+                return;
+            }
+            final ArrayList<IFileVisitor> files = new ArrayList<>();
+            final ArrayList<IDirectoryVisitor> directories = new ArrayList<>();
+            try {
+                if (mDirectory instanceof IDirectoryListing) {
+                    ((IDirectoryListing) mDirectory).listChildren(files, directories);
+                } else {
+                    files.addAll(mDirectory.listFiles());
+                    directories.addAll(mDirectory.listDirectories());
+                }
+            } catch (FileAccessErrException e) {
+                synchronized(mDeliverLock) {
+                    mListener.onError(mDirectory, e);
+                }
+                return;
+            }
+            final ArrayList<CrawlTask> subTasks = new ArrayList<>(directories.size());
+            for (IDirectoryVisitor directory : directories) {
+                subTasks.add(new CrawlTask(directory, childPath(mPath, directory.getDisplayName()), mListener,
+                        mCount));
+            }
+            // 先派发子目录，当前线程处理文件信息时其他线程已经开始列举子目录
+            for (CrawlTask subTask : subTasks) {
+                subTask.fork();
+            }
+            for (IFileVisitor file : files) {
+                if (mCanceled.get()) {
+                    break;
+                }
+                final String name = file.getDisplayName();
+                emit(new FileMetadata(childPath(mPath, name), name, file.getSize(), file.getMTime()), mListener);
+                mCount.incrementAndGet();
+            }
+            for (CrawlTask subTask : subTasks) {
+                subTask.join();
+            }
+        }
+    }
+
+    /**
+     * 遍历回调，在遍历线程上调用，同一时间只有一个回调在执行
+     */
+    public interface IListener {
+        void onBatch(@NonNull List<FileMetadata> batch);
+
+        /**
+         * 目录无法列举，跳过该目录继续遍历
+         */
+        void onError(@NonNull IDirectoryVisitor directory, @NonNull FileAccessErrException e);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 目录上一次扫描的结果：目录的修改时间、直接包含的文件的大小与修改时间、子目录名
+ */
+public class DirectoryFingerprint {
+    private static final char FIELD_SEPARATOR = '\u0000';
+    private static final char RECORD_SEPARATOR = '\u0001';
+
+    private final long mMTime;
+    private final Map<String, long[]> mFiles;
+    private final Set<String> mDirectories;
+
+    public DirectoryFingerprint(long mTime, @NonNull Map<String, long[]> files, @NonNull Set<String> directories) {
+        mMTime = mTime;
+        mFiles = files;
+        mDirectories = directories;
+    }
+
+    public long getMTime() {
+        return mMTime;
+    }
+
+    /**
+     * @return 文件名到{size, mtime}
+     */
+    @NonNull
+    public Map<String, long[]> getFiles() {
+        return Collections.unmodifiableMap(mFiles);
+    }
+
+    @NonNull
+    public Set<String> getDirectories() {
+        return Collections.unmodifiableSet(mDirectories);
+    }
+
+    /**
+     * 以文件名中不会出现的控制字符作为分隔符
+     */
+    @NonNull
+    public String encode() {
+        final StringBuilder builder = new StringBuilder().append(mMTime);
+        for (Map.Entry<String, long[]> entry : mFiles.entrySet()) {
+            builder.append(RECORD_SEPARATOR).append('f').append(entry.getKey()).append(FIELD_SEPARATOR)
+                    .append(entry.getValue()[0]).append(FIELD_SEPARATOR).append(entry.getValue()[1]);
+        }
+        for (String directory : mDirectories) {
+            builder.append(RECORD_SEPARATOR).append('d').append(directory);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return 格式错误时返回null
+     */
+    @Nullable
+    public static DirectoryFingerprint decode(@NonNull String value) {
+        final String[] records = value.split(String.valueOf(RECORD_SEPARATOR), -1);
+        final HashMap<String, long[]> files = new HashMap<>();
+        final HashSet<String> directories = new HashSet<>();
+        try {
+            final long mTime = Long.parseLong(records[0]);
+            for (int i = 1; i < records.length; i++) {
+                final String record = records[i];
+                if (record.isEmpty()) {
+                    return null;
+                }
+                if (record.charAt(0) == 'd') {
+                    directories.add(record.substring(1));
+                    continue;
+                }
+                final String[] fields = record.substring(1).split(String.valueOf(FIELD_SEPARATOR), -1);
+                if (fields.length != 3) {
+                    return null;
+                }
+                files.put(fields[0], new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+            }
+            return new DirectoryFingerprint(mTime, files, directories);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.yqman.persistence.file.FileAccessErrException;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * 按总字节数限制大小的磁盘LRU缓存，每个key对应目录下的一个文件
+ * 访问顺序记录在journal中(READ记录)，不修改文件的修改时间；重新打开时从journal恢复LRU顺序
+ * 读取返回{@link Snapshot}，多个读取可以同时进行；同一个key同一时间只能有一个{@link Editor}，
+ * 写入临时文件后commit时rename生效，写入过程中读取得到的仍是旧内容
+ * 超出大小后的淘汰与journal压缩在后台线程执行
+ */
+public class DiskLruCache implements Closeable {
+    private static final String TAG = "DiskLruCache";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final String JOURNAL_FILE = "journal";
+    static final String MAGIC = "com.yqman.persistence.DiskLruCache";
+    static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+    private static final Pattern KEY_PATTERN = Pattern.compile("[a-z0-9_-]{1,120}");
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+    private final File mJournalFile;
+    private final int mAppVersion;
+    private long mMaxSize;
+    private long mSize;
+    private FileAppender mJournal;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private int mRedundantOpCount;
+    private boolean mClosed;
+
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    private final Runnable mCleanupTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized(DiskLruCache.this) {
+                if (mClosed) {
+                    return;
+                }
+                try {
+                    trimToSize();
+                    if (isJournalRebuildRequired()) {
+                        rebuildJournal();
+                    }
+                } catch (FileAccessErrException e) {
+                    Log.w(TAG, "cleanup failed", e);
+                }
+            }
+        }
+    };
+
+    private DiskLruCache(File directory, int appVersion, long maxSize) {
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mAppVersion = appVersion;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 打开缓存目录，journal损坏或appVersion不一致时清空目录重新开始
+     * @param appVersion 缓存格式版本，变化时旧缓存全部失效
+     * @param maxSize 总字节数上限
+     */
+    @NonNull
+    public static DiskLruCache open(@NonNull File directory, int appVersion, long maxSize)
+            throws FileAccessErrException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("max size must be positive:" + maxSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileAccessErrException("create directory failed:" + directory.getAbsolutePath());
+        }
+        DiskLruCache cache = new DiskLruCache(directory, appVersion, maxSize);
+        if (cache.mJournalFile.exists()) {
+            boolean journalValid = false;
+            try {
+                cache.readJournal();
+                cache.processJournal();
+                journalValid = true;
+            } catch (IOException e) {
+                Log.w(TAG, "journal corrupt, clear " + directory, e);
+            }
+            if (journalValid) {
+                // journal内容有效，追加失败属于访问错误，直接抛给调用方而不是清空缓存
+                cache.mJournal = new RawFile(cache.mJournalFile).openAppender();
+                return cache;
+            }
+            cache.deleteContents();
+            cache = new DiskLruCache(directory, appVersion, maxSize);
+        }
+        cache.rebuildJournal();
+        return cache;
+    }
+
+    /**
+     * 任意字符串转为合法的key
+     */
+    @NonNull
+    public static String hashKey(@NonNull String value) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] bytes = digest.digest(value.getBytes(UTF_8));
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return key不存在或正在第一次写入时为null；用完需要关闭
+     */
+    @Nullable
+    public synchronized Snapshot get(@NonNull String key) throws FileAccessErrException {
+        checkNotClosed();
+        validateKey(key);
+        final Entry entry = mEntries.get(key);
+        if (entry == null || !entry.mReadable) {
+            return null;
+        }
+        final InputStream inputStream;
+        try {
+            inputStream = new FileInputStream(entry.getCleanFile());
+        } catch (FileNotFoundException e) {
+            // 文件被外部删除
+            return null;
+        }
+        mRedundantOpCount++;
+        mJournal.appendLine(READ + ' ' + key);
+        if (isJournalRebuildRequired()) {
+            mExecutor.execute(mCleanupTask);
+        }
+        return new Snapshot(key, entry.mLength, inputStream);
+    }
+
+    /**
+     * @return 该key正在被编辑时为null
+     */
+    @Nullable
+    public synchronized Editor edit(@NonNull String key) throws FileAccessErrException {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        } else if (entry.mCurrentEditor != null) {
+            return null;
+        }
+        final Editor editor = new Editor(entry);
+        entry.mCurrentEditor = editor;
+        // 先记录DIRTY，崩溃后重新打开时能识别出未完成的写入
+        mJournal.appendLine(DIRTY + ' ' + key);
+        mJournal.flush();
+        return editor;
+    }
+
+    /**
+     * 删除key，正在编辑的key不能删除
+     */
+    public synchronized boolean remove(@NonNull String key) throws FileAccessErrException {
+        checkNotClosed();
+        validateKey(key);
+        final Entry entry = mEntries.get(key);
+        if (entry == null || entry.mCurrentEditor != null) {
+            return false;
+        }
+        final File file = entry.getCleanFile();
+        if (!file.delete() && file.exists()) {
+            throw new FileAccessErrException("delete failed:" + file.getAbsolutePath());
+        }
+        mSize -= entry.mLength;
+        mRedundantOpCount++;
+        mEntries.remove(key);
+        mJournal.appendLine(REMOVE + ' ' + key);
+        mJournal.flush();
+        if (isJournalRebuildRequired()) {
+            mExecutor.execute(mCleanupTask);
+        }
+        return true;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * 调小上限时在后台淘汰
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        mExecutor.execute(mCleanupTask);
+    }
+
+    @NonNull
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public synchronized void flush() throws FileAccessErrException {
+        checkNotClosed();
+        trimToSize();
+        mJournal.flush();
+    }
+
+    /**
+     * 放弃所有未完成的编辑后关闭
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        for (Entry entry : new ArrayList<>(mEntries.values())) {
+            if (entry.mCurrentEditor != null) {
+                entry.mCurrentEditor.abortQuietly();
+            }
+        }
+        try {
+            trimToSize();
+        } catch (FileAccessErrException e) {
+            Log.w(TAG, "trim on close failed", e);
+        }
+        mJournal.close();
+        mClosed = true;
+        mExecutor.shutdown();
+    }
+
+    /**
+     * 关闭并删除所有缓存文件
+     */
+    public void delete() {
+        close();
+        deleteContents();
+    }
+
+    private void readJournal() throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile),
+                UTF_8));
+        try {
+            final String magic = reader.readLine();
+            final String version = reader.readLine();
+            final String appVersion = reader.readLine();
+            final String blank = reader.readLine();
+            if (!MAGIC.equals(magic) || !VERSION.equals(version)
+                    || !Integer.toString(mAppVersion).equals(appVersion) || !"".equals(blank)) {
+                throw new IOException("unexpected journal header: [" + magic + ", " + version + ", "
+                        + appVersion + ", " + blank + "]");
+            }
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                readJournalLine(line);
+                lineCount++;
+            }
+            mRedundantOpCount = lineCount - mEntries.size();
+        } finally {
+            FileCopier.closeQuietly(reader);
+        }
+    }
+
+    private void readJournalLine(String line) throws IOException {
+        final String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            throw new IOException("unexpected journal line: " + line);
+        }
+        final String key = parts[1];
+        if (REMOVE.equals(parts[0]) && parts.length == 2) {
+            mEntries.remove(key);
+            return;
+        }
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        }
+        if (CLEAN.equals(parts[0]) && parts.length == 3) {
+            entry.mReadable = true;
+            entry.mCurrentEditor = null;
+            try {
+                entry.mLength = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                throw new IOException("unexpected journal line: " + line);
+            }
+        } else if (DIRTY.equals(parts[0]) && parts.length == 2) {
+            entry.mCurrentEditor = new Editor(entry);
+        } else if (!READ.equals(parts[0]) || parts.length != 2) {
+            // READ只需要上面的get调整访问顺序
+            throw new IOException("unexpected journal line: " + line);
+        }
+    }
+
+    /**
+     * 统计大小，删除上次没有完成的写入
+     */
+    private void processJournal() {
+        final Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.mCurrentEditor == null) {
+                mSize += entry.mLength;
+            } else {
+                entry.mCurrentEditor = null;
+                entry.getCleanFile().delete();
+                entry.getDirtyFile().delete();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 只保留每个key的最终状态，原子替换journal
+     */
+    private void rebuildJournal() throws FileAccessErrException {
+        if (mJournal != null) {
+            mJournal.close();
+        }
+        final StringBuilder builder = new StringBuilder();
+        builder.append(MAGIC).append('\n').append(VERSION).append('\n').append(mAppVersion).append("\n\n");
+        for (Entry entry : mEntries.values()) {
+            if (entry.mCurrentEditor != null) {
+                builder.append(DIRTY).append(' ').append(entry.mKey).append('\n');
+            } else {
+                builder.append(CLEAN).append(' ').append(entry.mKey).append(' ').append(entry.mLength).append('\n');
+            }
+        }
+        new RawFile(mJournalFile).writeStringAtomically(builder.toString());
+        mJournal = new RawFile(mJournalFile).openAppender();
+        mRedundantOpCount = 0;
+    }
+
+    private boolean isJournalRebuildRequired() {
+        return mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size();
+    }
+
+    private void trimToSize() throws FileAccessErrException {
+        while (mSize > mMaxSize) {
+            String eldest = null;
+            // 按访问顺序遍历，跳过正在编辑的key
+            for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                if (item.getValue().mCurrentEditor == null) {
+                    eldest = item.getKey();
+                    break;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            remove(eldest);
+        }
+    }
+
+    private synchronized void completeEdit(Editor editor, boolean success) throws FileAccessErrException {
+        final Entry entry = editor.mEntry;
+        if (entry.mCurrentEditor != editor) {
+            throw new IllegalStateException("editor is not current");
+        }
+        final File dirty = entry.getDirtyFile();
+        if (success && dirty.exists()) {
+            final File clean = entry.getCleanFile();
+            if (!dirty.renameTo(clean)) {
+                dirty.delete();
+                success = false;
+            } else {
+                final long oldLength = entry.mLength;
+                entry.mLength = clean.length();
+                mSize = mSize - oldLength + entry.mLength;
+                entry.mReadable = true;
+            }
+        } else {
+            dirty.delete();
+        }
+        entry.mCurrentEditor = null;
+        mRedundantOpCount++;
+        if (entry.mReadable) {
+            mJournal.appendLine(CLEAN + ' ' + entry.mKey + ' ' + entry.mLength);
+        } else {
+            mEntries.remove(entry.mKey);
+            mJournal.appendLine(REMOVE + ' ' + entry.mKey);
+        }
+        mJournal.flush();
+        if (mSize > mMaxSize || isJournalRebuildRequired()) {
+            mExecutor.execute(mCleanupTask);
+        }
+        if (!success && editor.mCommitted) {
+            throw new FileAccessErrException("commit failed:" + entry.mKey);
+        }
+    }
+
+    private void deleteContents() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private void checkNotClosed() {
+        if (mClosed) {
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    private static void validateKey(String key) {
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("keys must match [a-z0-9_-]{1,120}: \"" + key + "\"");
+        }
+    }
+
+    private class Entry {
+        private final String mKey;
+        private long mLength;
+        private boolean mReadable;
+        private Editor mCurrentEditor;
+
+        private Entry(String key) {
+            mKey = key;
+        }
+
+        File getCleanFile() {
+            return new File(mDirectory, mKey + ".0");
+        }
+
+        File getDirtyFile() {
+            return new File(mDirectory, mKey + ".0.tmp");
+        }
+    }
+
+    /**
+     * 缓存项的只读快照，内容在打开时确定，之后的编辑与淘汰不影响已打开的快照
+     */
+    public static class Snapshot implements Closeable {
+        private final String mKey;
+        private final long mLength;
+        private final InputStream mInputStream;
+
+        private Snapshot(String key, long length, InputStream inputStream) {
+            mKey = key;
+            mLength = length;
+            mInputStream = inputStream;
+        }
+
+        @NonNull
+        public String getKey() {
+            return mKey;
+        }
+
+        public long getLength() {
+            return mLength;
+        }
+
+        @NonNull
+        public InputStream getInputStream() {
+            return mInputStream;
+        }
+
+        /**
+         * 以UTF-8读取全部内容后关闭
+         */
+        @NonNull
+        public String getString() throws FileAccessErrException {
+            try {
+                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+                        mLength > 0 && mLength < Integer.MAX_VALUE ? (int) mLength : 8192);
+                new FileCopier().copyStream(mInputStream, outputStream, mLength, null);
+                return new String(outputStream.toByteArray(), UTF_8);
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            FileCopier.closeQuietly(mInputStream);
+        }
+    }
+
+    /**
+     * 编辑一个缓存项，必须调用{@link #commit()}或{@link #abort()}结束
+     */
+    public class Editor {
+        private final Entry mEntry;
+        private boolean mDone;
+        private boolean mCommitted;
+
+        private Editor(Entry entry) {
+            mEntry = entry;
+        }
+
+        /**
+         * 写入临时文件，commit之前读取得到的仍是旧内容
+         */
+        @NonNull
+        public OutputStream newOutputStream() throws FileAccessErrException {
+            synchronized(DiskLruCache.this) {
+                if (mDone) {
+                    throw new IllegalStateException("editor finished");
+                }
+                try {
+                    return new FileOutputStream(mEntry.getDirtyFile());
+                } catch (FileNotFoundException e) {
+                    throw new FileAccessErrException(e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * 以UTF-8写入全部内容
+         */
+        public void set(@NonNull String value) throws FileAccessErrException {
+            final OutputStream outputStream = newOutputStream();
+            try {
+                outputStream.write(value.getBytes(UTF_8));
+            } catch (IOException e) {
+                throw new FileAccessErrException(e.getMessage());
+            } finally {
+                FileCopier.closeQuietly(outputStream);
+            }
+        }
+
+        public void commit() throws FileAccessErrException {
+            finish(true);
+        }
+
+        public void abort() throws FileAccessErrException {
+            finish(false);
+        }
+
+        private void abortQuietly() {
+            try {
+                abort();
+            } catch (FileAccessErrException e) {
+                // do nothing
+            }
+        }
+
+        private void finish(boolean success) throws FileAccessErrException {
+            synchronized(DiskLruCache.this) {
+                if (mDone) {
+                    throw new IllegalStateException("editor finished");
+                }
+                mDone = true;
+                mCommitted = success;
+                completeEdit(this, success);
+            }
+        }
+    }
+}
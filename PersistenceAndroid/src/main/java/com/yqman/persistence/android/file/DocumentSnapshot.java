@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.yqman.persistence.android.FileTools;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.provider.DocumentFile;
+import android.util.Log;
+
+/**
+ * 文档属性的快照，一次查询得到名称、大小、修改时间、类型与flags
+ * DocumentFile的每个属性都是一次ContentResolver查询，列举目录时用{@link #queryChildren}一次查询得到所有子文档的快照
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class DocumentSnapshot {
+    private static final String TAG = "DocumentSnapshot";
+    private static final String[] PROJECTION = new String[] {
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_MIME_TYPE,
+            Document.COLUMN_SIZE,
+            Document.COLUMN_LAST_MODIFIED,
+            Document.COLUMN_FLAGS
+    };
+
+    private final Uri mUri;
+    private final String mDisplayName;
+    private final String mMimeType;
+    private final long mSize;
+    private final long mMTime;
+    private final int mFlags;
+
+    public DocumentSnapshot(@NonNull Uri uri, @Nullable String displayName, @Nullable String mimeType, long size,
+                            long mTime, int flags) {
+        mUri = uri;
+        mDisplayName = displayName;
+        mMimeType = mimeType;
+        mSize = size;
+        mMTime = mTime;
+        mFlags = flags;
+    }
+
+    @NonNull
+    public Uri getUri() {
+        return mUri;
+    }
+
+    @Nullable
+    public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    @Nullable
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getMTime() {
+        return mMTime;
+    }
+
+    /**
+     * @return {@link Document#COLUMN_FLAGS}，本地文件为0
+     */
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public boolean isDirectory() {
+        return Document.MIME_TYPE_DIR.equals(mMimeType);
+    }
+
+    /**
+     * 查询单个文档的所有属性
+     */
+    @NonNull
+    public static DocumentSnapshot query(@NonNull Context context, @NonNull DocumentFile documentFile) {
+        final Uri uri = documentFile.getUri();
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return fromFile(uri, new File(uri.getPath()));
+        }
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(uri, PROJECTION, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return fromCursor(uri, cursor);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "query failed " + uri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return fromDocumentFile(documentFile);
+    }
+
+    /**
+     * 一次查询得到目录下所有子文档的快照
+     * @return key为子文档的uri，与{@link DocumentFile#listFiles()}返回的uri一致；查询失败时为空
+     */
+    @NonNull
+    public static Map<Uri, DocumentSnapshot> queryChildren(@NonNull Context context,
+                                                           @NonNull DocumentFile directory) {
+        final Uri uri = directory.getUri();
+        final HashMap<Uri, DocumentSnapshot> snapshots = new HashMap<>();
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            final File[] files = new File(uri.getPath()).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    final Uri childUri = Uri.fromFile(file);
+                    snapshots.put(childUri, fromFile(childUri, file));
+                }
+            }
+            return snapshots;
+        }
+        final Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(uri,
+                DocumentsContract.getDocumentId(uri));
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(childrenUri, PROJECTION, null, null, null);
+            while (cursor != null && cursor.moveToNext()) {
+                final Uri childUri = DocumentsContract.buildDocumentUriUsingTree(uri, cursor.getString(0));
+                snapshots.put(childUri, fromCursor(childUri, cursor));
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "query children failed " + uri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return snapshots;
+    }
+
+    private static DocumentSnapshot fromCursor(Uri uri, Cursor cursor) {
+        return new DocumentSnapshot(uri, cursor.getString(1), cursor.getString(2),
+                cursor.isNull(3) ? 0 : cursor.getLong(3), cursor.isNull(4) ? 0 : cursor.getLong(4),
+                cursor.isNull(5) ? 0 : cursor.getInt(5));
+    }
+
+    private static DocumentSnapshot fromFile(Uri uri, File file) {
+        final boolean directory = file.isDirectory();
+        return new DocumentSnapshot(uri, file.getName(),
+                directory ? Document.MIME_TYPE_DIR : FileTools.getTypeForName(file.getName()),
+                directory ? 0 : file.length(), file.lastModified(), 0);
+    }
+
+    /**
+     * 查询失败时的兜底，逐个属性查询
+     */
+    @NonNull
+    static DocumentSnapshot fromDocumentFile(@NonNull DocumentFile documentFile) {
+        final boolean directory = documentFile.isDirectory();
+        return new DocumentSnapshot(documentFile.getUri(), documentFile.getName(),
+                directory ? Document.MIME_TYPE_DIR : documentFile.getType(), documentFile.length(),
+                documentFile.lastModified(), 0);
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentSnapshot{" + mDisplayName + ", mime=" + mMimeType + ", size=" + mSize + ", mtime=" + mMTime
+                + "}";
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.yqman.persistence.file.FileAccessErrException;
+
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+/**
+ * 长期持有的追加写入句柄，适合日志类写入
+ * 文件以"wa"打开，写入经过缓冲区，只写新增的数据；{@link #flush()}写入内核，{@link #sync()}落盘
+ * 所有方法线程安全
+ */
+public class FileAppender implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] NEW_LINE = "\n".getBytes(UTF_8);
+
+    private final ParcelFileDescriptor mDescriptor;
+    private final FileOutputStream mFileOutputStream;
+    private final BufferedOutputStream mOutputStream;
+    private boolean mClosed;
+
+    FileAppender(@NonNull ParcelFileDescriptor descriptor, int bufferSize) {
+        mDescriptor = descriptor;
+        mFileOutputStream = new FileOutputStream(descriptor.getFileDescriptor());
+        mOutputStream = new BufferedOutputStream(mFileOutputStream, bufferSize);
+    }
+
+    @NonNull
+    static FileAppender open(@NonNull IFileDescriptorProvider provider) throws FileAccessErrException {
+        try {
+            return new FileAppender(provider.openFileDescriptor("wa"), DEFAULT_BUFFER_SIZE);
+        } catch (FileNotFoundException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    public synchronized void append(@NonNull byte[] data, int offset, int length) throws FileAccessErrException {
+        checkOpen();
+        try {
+            mOutputStream.write(data, offset, length);
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    public void append(@NonNull byte[] data) throws FileAccessErrException {
+        append(data, 0, data.length);
+    }
+
+    /**
+     * 以UTF-8追加字符串
+     */
+    public void append(@NonNull String value) throws FileAccessErrException {
+        append(value.getBytes(UTF_8));
+    }
+
+    /**
+     * 追加字符串后追加换行
+     */
+    public synchronized void appendLine(@NonNull String value) throws FileAccessErrException {
+        append(value);
+        append(NEW_LINE);
+    }
+
+    /**
+     * 把缓冲区写入内核，进程崩溃不会丢失，断电仍可能丢失
+     */
+    public synchronized void flush() throws FileAccessErrException {
+        checkOpen();
+        try {
+            mOutputStream.flush();
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    /**
+     * flush之后fsync，返回后数据已经落盘
+     */
+    public synchronized void sync() throws FileAccessErrException {
+        flush();
+        try {
+            mFileOutputStream.getFD().sync();
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    /**
+     * 写入缓冲区中的数据后关闭，不做fsync
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        FileCopier.closeQuietly(mOutputStream);
+        FileCopier.closeQuietly(mDescriptor);
+    }
+
+    private void checkOpen() throws FileAccessErrException {
+        if (mClosed) {
+            throw new FileAccessErrException("appender closed");
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+import com.yqman.persistence.file.FileAccessErrException;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * 按字节复制文件内容，不做任何字符集转换
+ * 两端都能打开为普通文件的描述符时({@link IFileDescriptorProvider})使用FileChannel.transferTo，
+ * 由内核直接复制；否则使用池化的大缓冲区在流之间复制
+ * 两种方式都按块复制，每块之后回调进度并检查是否取消
+ */
+public class FileCopier {
+    private static final String TAG = "FileCopier";
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private static final long DEFAULT_TRANSFER_CHUNK = 8 * 1024 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    private static final ArrayDeque<byte[]> sBufferPool = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+
+    private final int mBufferSize;
+    private final long mTransferChunk;
+
+    public FileCopier() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_TRANSFER_CHUNK);
+    }
+
+    /**
+     * @param bufferSize 流复制的缓冲区大小，只有默认大小的缓冲区会被池化
+     * @param transferChunk 每次transferTo的字节数，决定进度回调与取消检查的粒度
+     */
+    public FileCopier(int bufferSize, long transferChunk) {
+        if (bufferSize <= 0 || transferChunk <= 0) {
+            throw new IllegalArgumentException("buffer size and transfer chunk must be positive");
+        }
+        mBufferSize = bufferSize;
+        mTransferChunk = transferChunk;
+    }
+
+    /**
+     * 把source的内容复制到target，覆盖target原有内容
+     * @return 复制的字节数
+     * @throws FileAccessErrException 读写失败或被取消，此时target中可能只有部分内容
+     */
+    public long copy(@NonNull IFileVisitor source, @NonNull IFileVisitor target, @Nullable ICopyListener listener)
+            throws FileAccessErrException {
+        if (source instanceof IFileDescriptorProvider && target instanceof IFileDescriptorProvider) {
+            final long copied = copyChannel((IFileDescriptorProvider) source, (IFileDescriptorProvider) target,
+                    listener);
+            if (copied >= 0) {
+                return copied;
+            }
+        }
+        final InputStream inputStream = source.getInputStream();
+        if (inputStream == null) {
+            throw new FileAccessErrException("can not open source");
+        }
+        final OutputStream outputStream;
+        try {
+            outputStream = target.getOutputStream(false);
+        } catch (FileAccessErrException e) {
+            closeQuietly(inputStream);
+            throw e;
+        }
+        if (outputStream == null) {
+            closeQuietly(inputStream);
+            throw new FileAccessErrException("can not open target");
+        }
+        try {
+            return copyStream(inputStream, outputStream, source.getSize(), listener);
+        } finally {
+            closeQuietly(inputStream);
+            closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * 在两个流之间复制，不关闭流
+     * @param total 总字节数，仅用于进度回调，未知时传-1
+     */
+    public long copyStream(@NonNull InputStream inputStream, @NonNull OutputStream outputStream, long total,
+                           @Nullable ICopyListener listener) throws FileAccessErrException {
+        final byte[] buffer = obtainBuffer();
+        long copied = 0;
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                copied += read;
+                notifyProgress(listener, copied, total);
+            }
+            outputStream.flush();
+            return copied;
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        } finally {
+            recycleBuffer(buffer);
+        }
+    }
+
+    /**
+     * @return 复制的字节数；任意一端不是普通文件(管道、socket等)时返回-1，由调用方改用流复制
+     */
+    private long copyChannel(IFileDescriptorProvider source, IFileDescriptorProvider target,
+                             ICopyListener listener) throws FileAccessErrException {
+        ParcelFileDescriptor sourceDescriptor = null;
+        ParcelFileDescriptor targetDescriptor = null;
+        FileInputStream inputStream = null;
+        FileOutputStream outputStream = null;
+        try {
+            sourceDescriptor = source.openFileDescriptor("r");
+            final long total = sourceDescriptor.getStatSize();
+            if (total < 0) {
+                return -1;
+            }
+            targetDescriptor = target.openFileDescriptor("w");
+            if (targetDescriptor.getStatSize() < 0) {
+                return -1;
+            }
+            inputStream = new FileInputStream(sourceDescriptor.getFileDescriptor());
+            outputStream = new FileOutputStream(targetDescriptor.getFileDescriptor());
+            final FileChannel inputChannel = inputStream.getChannel();
+            final FileChannel outputChannel = outputStream.getChannel();
+            long position = 0;
+            while (position < total) {
+                final long transferred = inputChannel.transferTo(position,
+                        Math.min(mTransferChunk, total - position), outputChannel);
+                if (transferred <= 0) {
+                    // 复制过程中源文件被截断
+                    break;
+                }
+                position += transferred;
+                notifyProgress(listener, position, total);
+            }
+            // "w"模式不保证截断，目标原来更长时去掉多余的部分
+            outputChannel.truncate(position);
+            return position;
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "descriptor unavailable, fall back to stream copy", e);
+            return -1;
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        } finally {
+            closeQuietly(inputStream);
+            closeQuietly(outputStream);
+            closeQuietly(sourceDescriptor);
+            closeQuietly(targetDescriptor);
+        }
+    }
+
+    private static void notifyProgress(ICopyListener listener, long copied, long total)
+            throws FileAccessErrException {
+        if (listener == null) {
+            return;
+        }
+        listener.onProgress(copied, total);
+        if (listener.isCanceled()) {
+            throw new FileAccessErrException("copy canceled");
+        }
+    }
+
+    private byte[] obtainBuffer() {
+        if (mBufferSize == DEFAULT_BUFFER_SIZE) {
+            synchronized(sBufferPool) {
+                final byte[] buffer = sBufferPool.poll();
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+        return new byte[mBufferSize];
+    }
+
+    private static void recycleBuffer(byte[] buffer) {
+        if (buffer.length != DEFAULT_BUFFER_SIZE) {
+            return;
+        }
+        synchronized(sBufferPool) {
+            if (sBufferPool.size() < MAX_POOLED_BUFFERS) {
+                sBufferPool.offer(buffer);
+            }
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // do nothing
+        }
+    }
+
+    /**
+     * API 16以下ParcelFileDescriptor没有实现Closeable
+     */
+    static void closeQuietly(ParcelFileDescriptor descriptor) {
+        if (descriptor == null) {
+            return;
+        }
+        try {
+            descriptor.close();
+        } catch (IOException e) {
+            // do nothing
+        }
+    }
+
+    /**
+     * 复制进度回调，在复制线程上调用
+     */
+    public interface ICopyListener {
+        /**
+         * @param total 总字节数，未知时为-1
+         */
+        void onProgress(long copied, long total);
+
+        /**
+         * 每块复制后检查，返回true时停止复制
+         */
+        boolean isCanceled();
+    }
+}
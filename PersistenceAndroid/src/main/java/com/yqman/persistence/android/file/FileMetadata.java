@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 遍历目录时得到的文件信息
+ */
+public class FileMetadata {
+    private final String mPath;
+    private final String mName;
+    private final long mSize;
+    private final long mMTime;
+
+    public FileMetadata(@NonNull String path, @NonNull String name, long size, long mTime) {
+        mPath = path;
+        mName = name;
+        mSize = size;
+        mMTime = mTime;
+    }
+
+    /**
+     * @return 相对遍历起点的路径，以"/"分隔
+     */
+    @NonNull
+    public String getPath() {
+        return mPath;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getMTime() {
+        return mMTime;
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetadata{" + mPath + ", size=" + mSize + ", mtime=" + mMTime + "}";
+    }
+}
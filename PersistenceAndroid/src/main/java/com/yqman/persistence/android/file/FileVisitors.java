@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.File;
+
+import com.yqman.persistence.file.FileAccessErrException;
+import com.yqman.persistence.file.IDirectoryVisitor;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.v4.provider.DocumentFile;
+
+/**
+ * 根据uri选择文件实现：file://使用{@link RawFile}/{@link RawDirectory}直接访问，
+ * 其他uri使用基于DocumentFile的{@link AndroidFile}/{@link AndroidDirectory}
+ */
+public class FileVisitors {
+
+    private FileVisitors() {
+    }
+
+    public static boolean isLocal(@NonNull Uri uri) {
+        return ContentResolver.SCHEME_FILE.equals(uri.getScheme());
+    }
+
+    /**
+     * @param uri file://目录或者通过ACTION_OPEN_DOCUMENT_TREE得到的tree uri
+     */
+    @NonNull
+    public static IDirectoryVisitor directory(@NonNull Context context, @NonNull Uri uri)
+            throws FileAccessErrException {
+        if (isLocal(uri)) {
+            return new RawDirectory(new File(uri.getPath()));
+        }
+        return new AndroidDirectory(context, uri);
+    }
+
+    @NonNull
+    public static IDirectoryVisitor directory(@NonNull File directory) throws FileAccessErrException {
+        return new RawDirectory(directory);
+    }
+
+    /**
+     * 已有的DocumentFile，由DocumentFile.fromFile创建的同样改为直接访问
+     */
+    @NonNull
+    public static IDirectoryVisitor directory(@NonNull Context context, @NonNull DocumentFile directory)
+            throws FileAccessErrException {
+        if (isLocal(directory.getUri())) {
+            return new RawDirectory(new File(directory.getUri().getPath()));
+        }
+        return new AndroidDirectory(context, directory);
+    }
+
+    /**
+     * @param uri file://文件或者单个文档的uri
+     */
+    @NonNull
+    public static IFileVisitor file(@NonNull Context context, @NonNull Uri uri) {
+        if (isLocal(uri)) {
+            return new RawFile(new File(uri.getPath()));
+        }
+        return new AndroidFile(context, DocumentFile.fromSingleUri(context, uri));
+    }
+
+    @NonNull
+    public static IFileVisitor file(@NonNull File file) {
+        return new RawFile(file);
+    }
+}
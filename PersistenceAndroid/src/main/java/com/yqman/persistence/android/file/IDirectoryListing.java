@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.util.List;
+
+import com.yqman.persistence.file.FileAccessErrException;
+import com.yqman.persistence.file.IDirectoryVisitor;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 一次列举同时得到目录下的文件与子目录
+ * {@link IDirectoryVisitor#listFiles()}与{@link IDirectoryVisitor#listDirectories()}分别列举一次目录，
+ * 遍历目录树时应优先使用该接口
+ */
+public interface IDirectoryListing {
+    void listChildren(@NonNull List<IFileVisitor> files, @NonNull List<IDirectoryVisitor> directories)
+            throws FileAccessErrException;
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import com.yqman.persistence.file.FileAccessErrException;
+import com.yqman.persistence.file.IDirectoryVisitor;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 按名称查找与创建子项，{@link IDirectoryVisitor}只能列举全部子项且不能创建子目录
+ */
+public interface IDirectoryTree {
+    /**
+     * 子目录已存在时直接返回
+     */
+    @NonNull
+    IDirectoryVisitor createDirectory(@NonNull String displayName) throws FileAccessErrException;
+
+    @Nullable
+    IDirectoryVisitor findDirectory(@NonNull String displayName);
+
+    @Nullable
+    IFileVisitor findFile(@NonNull String displayName);
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import com.yqman.persistence.file.FileAccessErrException;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 可靠写入：整体替换与追加
+ */
+public interface IDurableWrite {
+    /**
+     * 以UTF-8整体替换文件内容，返回时内容已经落盘；API 21以下无法fsync目录，断电后可能仍是旧内容，但不会是不完整的内容
+     */
+    void writeStringAtomically(@NonNull String value) throws FileAccessErrException;
+
+    /**
+     * 打开追加写入句柄，用完需要关闭
+     */
+    @NonNull
+    FileAppender openAppender() throws FileAccessErrException;
+}
@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.FileNotFoundException;
+
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+/**
+ * 可以直接打开文件描述符的文件，{@link FileCopier}据此走FileChannel的零拷贝路径
+ */
+public interface IFileDescriptorProvider {
+    /**
+     * @param mode 与{@link android.content.ContentResolver#openFileDescriptor}一致，如"r"、"w"、"rw"
+     */
+    @NonNull
+    ParcelFileDescriptor openFileDescriptor(@NonNull String mode) throws FileNotFoundException;
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 保存{@link IncrementalScanner}的目录指纹，key为目录路径
+ * 需要跨进程保留时可以用{@link DirectoryFingerprint#encode()}序列化后持久化
+ */
+public interface IFingerprintStore {
+    @Nullable
+    DirectoryFingerprint get(@NonNull String path);
+
+    void put(@NonNull String path, @NonNull DirectoryFingerprint fingerprint);
+
+    void remove(@NonNull String path);
+
+    /**
+     * 保存在内存中的实现，进程结束后需要重新完整扫描
+     */
+    class MemoryFingerprintStore implements IFingerprintStore {
+        private final ConcurrentHashMap<String, DirectoryFingerprint> mFingerprints = new ConcurrentHashMap<>();
+
+        @Nullable
+        @Override
+        public DirectoryFingerprint get(@NonNull String path) {
+            return mFingerprints.get(path);
+        }
+
+        @Override
+        public void put(@NonNull String path, @NonNull DirectoryFingerprint fingerprint) {
+            mFingerprints.put(path, fingerprint);
+        }
+
+        @Override
+        public void remove(@NonNull String path) {
+            mFingerprints.remove(path);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.nio.MappedByteBuffer;
+
+import com.yqman.persistence.file.FileAccessErrException;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 随机访问文件内容，不经过InputStream复制到Java堆
+ * 映射建立后即使关闭文件描述符也保持有效，直到MappedByteBuffer被回收
+ */
+public interface IRandomAccess {
+    /**
+     * 只读映射整个文件
+     */
+    @NonNull
+    MappedByteBuffer mapReadOnly() throws FileAccessErrException;
+
+    /**
+     * 只读映射[position, position + size)，size不能超过Integer.MAX_VALUE，小于0时映射到文件末尾
+     */
+    @NonNull
+    MappedByteBuffer map(long position, long size) throws FileAccessErrException;
+
+    /**
+     * 打开按位置读取的reader，适合多次小范围读取的索引文件，用完需要关闭
+     */
+    @NonNull
+    PositionalReader openReader() throws FileAccessErrException;
+}
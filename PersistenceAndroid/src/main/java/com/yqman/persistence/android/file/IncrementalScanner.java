@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.yqman.persistence.file.FileAccessErrException;
+import com.yqman.persistence.file.IDirectoryVisitor;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * 增量扫描目录树，只输出与上一次扫描相比新增、修改、删除的文件
+ * 每个目录保存一份{@link DirectoryFingerprint}；目录的修改时间只随直接包含的条目增删改名而变化，
+ * 因此修改时间未变的目录跳过文件比较(不读取每个文件的大小与修改时间)，但仍然会进入子目录检查
+ * 原地修改文件内容不会改变目录的修改时间，需要发现这类修改时关闭{@link #setTrustDirectoryMTime(boolean)}
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class IncrementalScanner {
+    private static final String TAG = "IncrementalScanner";
+
+    private final IFingerprintStore mFingerprintStore;
+    private final ForkJoinPool mPool;
+    private boolean mTrustDirectoryMTime = true;
+
+    public IncrementalScanner(@NonNull IFingerprintStore fingerprintStore) {
+        this(fingerprintStore, new ForkJoinPool(4));
+    }
+
+    public IncrementalScanner(@NonNull IFingerprintStore fingerprintStore, @NonNull ForkJoinPool pool) {
+        mFingerprintStore = fingerprintStore;
+        mPool = pool;
+    }
+
+    public IncrementalScanner setTrustDirectoryMTime(boolean trustDirectoryMTime) {
+        mTrustDirectoryMTime = trustDirectoryMTime;
+        return this;
+    }
+
+    /**
+     * 扫描rootDirectory，没有指纹时所有文件都作为新增输出；扫描结束后指纹已更新
+     * @param rootPath 起点的路径，与{@link DirectoryCrawler}的路径规则一致
+     */
+    @NonNull
+    public ScanDelta scan(@NonNull IDirectoryVisitor rootDirectory, @NonNull String rootPath) {
+        final ScanDelta delta = new ScanDelta();
+        mPool.invoke(new ScanTask(rootDirectory, rootPath, delta));
+        return delta;
+    }
+
+    /**
+     * 清除rootPath下所有目录的指纹，下一次扫描会重新比较所有文件
+     */
+    public void reset(@NonNull String rootPath) {
+        removeSubtree(rootPath, null);
+    }
+
+    /**
+     * 删除目录及其子目录的指纹，delta不为null时把其中的文件记为删除
+     */
+    private void removeSubtree(String path, ScanDelta delta) {
+        final DirectoryFingerprint fingerprint = mFingerprintStore.get(path);
+        if (fingerprint == null) {
+            return;
+        }
+        if (delta != null) {
+            for (String name : fingerprint.getFiles().keySet()) {
+                delta.addDeleted(DirectoryCrawler.childPath(path, name));
+            }
+        }
+        for (String directory : fingerprint.getDirectories()) {
+            removeSubtree(DirectoryCrawler.childPath(path, directory), delta);
+        }
+        mFingerprintStore.remove(path);
+    }
+
+    private class ScanTask extends RecursiveAction {
+        private final IDirectoryVisitor mDirectory;
+        private final String mPath;
+        private final ScanDelta mDelta;
+
+        private ScanTask(IDirectoryVisitor directory, String path, ScanDelta delta) {
+            mDirectory = directory;
+            mPath = path;
+            mDelta = delta;
+        }
+
+        @Override
+        protected void compute() {
+            final DirectoryFingerprint previous = mFingerprintStore.get(mPath);
+            final long mTime = mDirectory.getMTime();
+            final boolean unchanged = mTrustDirectoryMTime && previous != null && mTime != 0
+                    && previous.getMTime() == mTime;
+            final ArrayList<IFileVisitor> files = new ArrayList<>();
+            final ArrayList<IDirectoryVisitor> directories = new ArrayList<>();
+            try {
+                if (mDirectory instanceof IDirectoryListing) {
+                    ((IDirectoryListing) mDirectory).listChildren(files, directories);
+                } else {
+                    if (!unchanged) {
+                        files.addAll(mDirectory.listFiles());
+                    }
+                    directories.addAll(mDirectory.listDirectories());
+                }
+            } catch (FileAccessErrException e) {
+                // 无法列举时保留原有指纹，不输出删除
+                Log.w(TAG, "skip " + mPath, e);
+                return;
+            }
+            final HashSet<String> directoryNames = new HashSet<>();
+            final ArrayList<ScanTask> subTasks = new ArrayList<>(directories.size());
+            for (IDirectoryVisitor directory : directories) {
+                final String name = directory.getDisplayName();
+                directoryNames.add(name);
+                subTasks.add(new ScanTask(directory, DirectoryCrawler.childPath(mPath, name), mDelta));
+            }
+            for (ScanTask subTask : subTasks) {
+                subTask.fork();
+            }
+            if (previous != null) {
+                for (String name : previous.getDirectories()) {
+                    if (!directoryNames.contains(name)) {
+                        removeSubtree(DirectoryCrawler.childPath(mPath, name), mDelta);
+                    }
+                }
+            }
+            final Map<String, long[]> fileStates;
+            if (unchanged) {
+                fileStates = new HashMap<>(previous.getFiles());
+            } else {
+                fileStates = compareFiles(files, previous);
+            }
+            mDelta.onDirectoryScanned(unchanged);
+            for (ScanTask subTask : subTasks) {
+                subTask.join();
+            }
+            mFingerprintStore.put(mPath, new DirectoryFingerprint(mTime, fileStates, directoryNames));
+        }
+
+        private Map<String, long[]> compareFiles(ArrayList<IFileVisitor> files, DirectoryFingerprint previous) {
+            final Map<String, long[]> previousFiles = previous == null ? new HashMap<String, long[]>()
+                    : previous.getFiles();
+            final HashMap<String, long[]> fileStates = new HashMap<>(files.size());
+            for (IFileVisitor file : files) {
+                final String name = file.getDisplayName();
+                final long size = file.getSize();
+                final long mTime = file.getMTime();
+                fileStates.put(name, new long[] {size, mTime});
+                final long[] previousState = previousFiles.get(name);
+                if (previousState == null) {
+                    mDelta.addInserted(new FileMetadata(DirectoryCrawler.childPath(mPath, name), name, size, mTime));
+                } else if (previousState[0] != size || previousState[1] != mTime) {
+                    mDelta.addUpdated(new FileMetadata(DirectoryCrawler.childPath(mPath, name), name, size, mTime));
+                }
+            }
+            for (String name : previousFiles.keySet()) {
+                if (!fileStates.containsKey(name)) {
+                    mDelta.addDeleted(DirectoryCrawler.childPath(mPath, name));
+                }
+            }
+            return fileStates;
+        }
+    }
+}
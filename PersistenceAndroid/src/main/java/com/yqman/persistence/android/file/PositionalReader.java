@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.yqman.persistence.file.FileAccessErrException;
+
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+/**
+ * 按位置读取文件，读取不改变共享的文件位置，可以在多个线程上同时读取
+ */
+public class PositionalReader implements Closeable {
+    private final ParcelFileDescriptor mDescriptor;
+    private final FileInputStream mInputStream;
+    private final FileChannel mChannel;
+
+    PositionalReader(@NonNull ParcelFileDescriptor descriptor) {
+        mDescriptor = descriptor;
+        mInputStream = new FileInputStream(descriptor.getFileDescriptor());
+        mChannel = mInputStream.getChannel();
+    }
+
+    @NonNull
+    static PositionalReader open(@NonNull IFileDescriptorProvider provider) throws FileAccessErrException {
+        try {
+            return new PositionalReader(openRegularFile(provider));
+        } catch (FileNotFoundException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    /**
+     * @param size 小于0时映射到文件末尾
+     */
+    @NonNull
+    static MappedByteBuffer map(@NonNull IFileDescriptorProvider provider, long position, long size)
+            throws FileAccessErrException {
+        ParcelFileDescriptor descriptor = null;
+        FileInputStream inputStream = null;
+        try {
+            descriptor = openRegularFile(provider);
+            final long mapSize = size < 0 ? descriptor.getStatSize() - position : size;
+            checkRange(position, mapSize);
+            inputStream = new FileInputStream(descriptor.getFileDescriptor());
+            return inputStream.getChannel().map(FileChannel.MapMode.READ_ONLY, position, mapSize);
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        } finally {
+            // 映射不依赖描述符，映射完成后立即关闭
+            FileCopier.closeQuietly(inputStream);
+            FileCopier.closeQuietly(descriptor);
+        }
+    }
+
+    private static void checkRange(long position, long size) throws FileAccessErrException {
+        if (position < 0 || size < 0 || size > Integer.MAX_VALUE) {
+            throw new FileAccessErrException("bad map range:" + position + "+" + size);
+        }
+    }
+
+    /**
+     * 管道与socket无法映射或按位置读取
+     */
+    private static ParcelFileDescriptor openRegularFile(IFileDescriptorProvider provider)
+            throws FileNotFoundException {
+        final ParcelFileDescriptor descriptor = provider.openFileDescriptor("r");
+        if (descriptor.getStatSize() < 0) {
+            FileCopier.closeQuietly(descriptor);
+            throw new FileNotFoundException("not a regular file");
+        }
+        return descriptor;
+    }
+
+    public long size() throws FileAccessErrException {
+        try {
+            return mChannel.size();
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    /**
+     * 从position开始读取，最多填满dst的剩余空间
+     * @return 读取的字节数，position不小于文件大小时为-1
+     */
+    public int read(long position, @NonNull ByteBuffer dst) throws FileAccessErrException {
+        try {
+            return mChannel.read(dst, position);
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    /**
+     * 从position开始读满length个字节
+     * @throws FileAccessErrException 文件剩余内容不足length
+     */
+    public void readFully(long position, @NonNull byte[] buffer, int offset, int length)
+            throws FileAccessErrException {
+        final ByteBuffer dst = ByteBuffer.wrap(buffer, offset, length);
+        try {
+            while (dst.hasRemaining()) {
+                final int read = mChannel.read(dst, position + dst.position() - offset);
+                if (read < 0) {
+                    throw new EOFException("unexpected end of file at " + (position + dst.position() - offset));
+                }
+            }
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    /**
+     * 只读映射[position, position + size)，复用已经打开的描述符
+     */
+    @NonNull
+    public MappedByteBuffer map(long position, long size) throws FileAccessErrException {
+        checkRange(position, size);
+        try {
+            return mChannel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        FileCopier.closeQuietly(mInputStream);
+        FileCopier.closeQuietly(mDescriptor);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.yqman.persistence.file.FileAccessErrException;
+import com.yqman.persistence.file.IDirectoryVisitor;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 直接使用java.io.File访问的目录，列举只调用一次{@link File#listFiles()}
+ */
+public class RawDirectory implements IDirectoryVisitor, IDirectoryListing, IDirectoryTree {
+    private final File mDirectory;
+    private final FileCopier mFileCopier = new FileCopier();
+
+    public RawDirectory(@NonNull File directory) throws FileAccessErrException {
+        if (!directory.isDirectory()) {
+            throw new FileAccessErrException("file is not directory:" + directory.getAbsolutePath());
+        }
+        mDirectory = directory;
+    }
+
+    @NonNull
+    public File getFile() {
+        return mDirectory;
+    }
+
+    /**
+     * 文件已存在时直接返回该文件，不会像DocumentsProvider一样生成新的文件名
+     */
+    @Override
+    public RawFile createNewFile(String displayName) throws FileAccessErrException {
+        final File file = new File(mDirectory, displayName);
+        try {
+            if (!file.createNewFile() && !file.isFile()) {
+                throw new FileAccessErrException("create file failed:" + file.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+        return new RawFile(file);
+    }
+
+    /**
+     * 创建新文件，同名文件已存在时失败，用于复制和移动，避免覆盖已有文件
+     */
+    @NonNull
+    RawFile createExclusiveFile(@NonNull String displayName) throws FileAccessErrException {
+        final File file = new File(mDirectory, displayName);
+        try {
+            if (!file.createNewFile()) {
+                throw new FileAccessErrException("target file exists:" + file.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+        return new RawFile(file);
+    }
+
+    @NonNull
+    @Override
+    public RawDirectory createDirectory(@NonNull String displayName) throws FileAccessErrException {
+        final File directory = new File(mDirectory, displayName);
+        if (!directory.mkdir() && !directory.isDirectory()) {
+            throw new FileAccessErrException("create directory failed:" + directory.getAbsolutePath());
+        }
+        return new RawDirectory(directory);
+    }
+
+    /**
+     * 按名称得到子目录，不列举目录
+     */
+    @Nullable
+    @Override
+    public RawDirectory findDirectory(@NonNull String displayName) {
+        final File directory = new File(mDirectory, displayName);
+        if (!directory.isDirectory()) {
+            return null;
+        }
+        try {
+            return new RawDirectory(directory);
+        } catch (FileAccessErrException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按名称得到子文件，不列举目录
+     * @return 文件不存在时为null
+     */
+    @Nullable
+    @Override
+    public RawFile findFile(@NonNull String displayName) {
+        final File file = new File(mDirectory, displayName);
+        return file.isFile() ? new RawFile(file) : null;
+    }
+
+    @Override
+    public boolean copyFile(IFileVisitor sourceFile, IDirectoryVisitor targetDir) throws FileAccessErrException {
+        return copyFile(sourceFile, targetDir, null);
+    }
+
+    /**
+     * 按字节复制文件，失败或取消时删除本次创建的目标文件
+     * 目标是本地目录且已有同名文件时抛出异常，不覆盖已有文件；其他目录由其createNewFile生成新的文件名
+     */
+    public boolean copyFile(IFileVisitor sourceFile, IDirectoryVisitor targetDir,
+                            @Nullable FileCopier.ICopyListener listener) throws FileAccessErrException {
+        final IFileVisitor targetFile = targetDir instanceof RawDirectory
+                ? ((RawDirectory) targetDir).createExclusiveFile(sourceFile.getIdentifier())
+                : targetDir.createNewFile(sourceFile.getIdentifier());
+        try {
+            mFileCopier.copy(sourceFile, targetFile, listener);
+        } catch (FileAccessErrException e) {
+            targetDir.deleteFile(targetFile);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * 目标也是本地目录时先尝试改名，跨分区时复制后删除
+     * 目标已有同名文件时抛出异常，源文件保持不变
+     */
+    @Override
+    public boolean moveFile(IFileVisitor sourceFile, IDirectoryVisitor targetDir) throws FileAccessErrException {
+        if (sourceFile instanceof RawFile && targetDir instanceof RawDirectory) {
+            final File source = ((RawFile) sourceFile).getFile();
+            final File target = new File(((RawDirectory) targetDir).getFile(), source.getName());
+            if (!target.exists() && source.renameTo(target)) {
+                return true;
+            }
+        }
+        copyFile(sourceFile, targetDir, null);
+        deleteFile(sourceFile);
+        return true;
+    }
+
+    @Override
+    public boolean deleteFile(IFileVisitor targetFile) {
+        if (targetFile instanceof RawFile) {
+            return ((RawFile) targetFile).delete();
+        }
+        return new File(mDirectory, targetFile.getIdentifier()).delete();
+    }
+
+    @Override
+    public String getIdentifier() {
+        return getUri().toString();
+    }
+
+    public Uri getUri() {
+        return Uri.fromFile(mDirectory);
+    }
+
+    @Override
+    public String getDisplayName() {
+        return mDirectory.getName();
+    }
+
+    @Override
+    public long getMTime() {
+        return mDirectory.lastModified();
+    }
+
+    @Override
+    public IDirectoryVisitor getParent() {
+        final File parent = mDirectory.getParentFile();
+        if (parent == null) {
+            return null;
+        }
+        try {
+            return new RawDirectory(parent);
+        } catch (FileAccessErrException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public ArrayList<IFileVisitor> listFiles() {
+        ArrayList<IFileVisitor> fileVisitors = new ArrayList<>();
+        listChildren(fileVisitors, new ArrayList<IDirectoryVisitor>());
+        return fileVisitors;
+    }
+
+    @Override
+    public ArrayList<IDirectoryVisitor> listDirectories() {
+        ArrayList<IDirectoryVisitor> dirVisitors = new ArrayList<>();
+        listChildren(new ArrayList<IFileVisitor>(), dirVisitors);
+        return dirVisitors;
+    }
+
+    @Override
+    public void listChildren(@NonNull List<IFileVisitor> files, @NonNull List<IDirectoryVisitor> directories) {
+        final File[] children = mDirectory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                try {
+                    directories.add(new RawDirectory(child));
+                } catch (FileAccessErrException e) {
+                    // do not handle
+                }
+            } else if (!AtomicOutputStream.isTempFile(child.getName())) {
+                // 不列出AtomicOutputStream正在写入或残留的临时文件
+                files.add(new RawFile(child));
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+
+import com.yqman.persistence.file.FileAccessErrException;
+import com.yqman.persistence.file.IDirectoryVisitor;
+import com.yqman.persistence.file.IFileVisitor;
+
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+/**
+ * 直接使用java.io.File访问的文件，用于应用私有目录等file://路径，不经过DocumentFile与ContentResolver
+ */
+public class RawFile implements IFileVisitor, IFileDescriptorProvider, IRandomAccess,
+        IDurableWrite {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+
+    public RawFile(@NonNull File file) {
+        mFile = file;
+    }
+
+    @NonNull
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public void writeString(String value, boolean isAppendMode) throws FileAccessErrException {
+        try {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(getOutputStream(isAppendMode)));
+            writer.write(value);
+            writer.close();
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void writeStringNewLine(String value, boolean isAppendMode) throws FileAccessErrException {
+        try {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(getOutputStream(isAppendMode)));
+            writer.write(value);
+            writer.newLine();
+            writer.close();
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream(boolean isAppendMode) throws FileAccessErrException {
+        try {
+            return new FileOutputStream(mFile, isAppendMode);
+        } catch (FileNotFoundException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws FileAccessErrException {
+        try {
+            return new FileInputStream(mFile);
+        } catch (FileNotFoundException e) {
+            throw new FileAccessErrException(e.getMessage());
+        }
+    }
+
+    @NonNull
+    @Override
+    public ParcelFileDescriptor openFileDescriptor(@NonNull String mode) throws FileNotFoundException {
+        return ParcelFileDescriptor.open(mFile, parseMode(mode));
+    }
+
+    /**
+     * 与ContentResolver的mode字符串一致，ParcelFileDescriptor.parseMode在API 19才提供
+     */
+    static int parseMode(String mode) {
+        if ("r".equals(mode)) {
+            return ParcelFileDescriptor.MODE_READ_ONLY;
+        } else if ("w".equals(mode) || "wt".equals(mode)) {
+            return ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                    | ParcelFileDescriptor.MODE_TRUNCATE;
+        } else if ("wa".equals(mode)) {
+            return ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                    | ParcelFileDescriptor.MODE_APPEND;
+        } else if ("rw".equals(mode)) {
+            return ParcelFileDescriptor.MODE_READ_WRITE | ParcelFileDescriptor.MODE_CREATE;
+        } else if ("rwt".equals(mode)) {
+            return ParcelFileDescriptor.MODE_READ_WRITE | ParcelFileDescriptor.MODE_CREATE
+                    | ParcelFileDescriptor.MODE_TRUNCATE;
+        }
+        throw new IllegalArgumentException("bad mode:" + mode);
+    }
+
+    boolean delete() {
+        return mFile.delete();
+    }
+
+    /**
+     * 写入临时文件，fsync后rename覆盖
+     */
+    @Override
+    public void writeStringAtomically(@NonNull String value) throws FileAccessErrException {
+        final AtomicOutputStream outputStream = new AtomicOutputStream(mFile);
+        try {
+            outputStream.write(value.getBytes(UTF_8));
+            outputStream.commit();
+        } catch (IOException e) {
+            throw new FileAccessErrException(e.getMessage());
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * 整体替换时使用，commit之前目标文件保持原有内容
+     */
+    @NonNull
+    public AtomicOutputStream openAtomicOutputStream() throws FileAccessErrException {
+        return new AtomicOutputStream(mFile);
+    }
+
+    @NonNull
+    @Override
+    public FileAppender openAppender() throws FileAccessErrException {
+        return FileAppender.open(this);
+    }
+
+    @NonNull
+    @Override
+    public MappedByteBuffer mapReadOnly() throws FileAccessErrException {
+        return PositionalReader.map(this, 0, -1);
+    }
+
+    @NonNull
+    @Override
+    public MappedByteBuffer map(long position, long size) throws FileAccessErrException {
+        return PositionalReader.map(this, position, size);
+    }
+
+    @NonNull
+    @Override
+    public PositionalReader openReader() throws FileAccessErrException {
+        return PositionalReader.open(this);
+    }
+
+    @Override
+    public String getIdentifier() {
+        return mFile.getName();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return mFile.getName();
+    }
+
+    @Override
+    public long getSize() {
+        return mFile.length();
+    }
+
+    @Override
+    public long getMTime() {
+        return mFile.lastModified();
+    }
+
+    @Override
+    public IDirectoryVisitor getDirectoryVisitor() {
+        try {
+            return new RawDirectory(mFile.getParentFile());
+        } catch (FileAccessErrException e) {
+            return null;
+        }
+    }
+}
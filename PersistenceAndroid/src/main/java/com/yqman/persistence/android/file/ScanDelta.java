@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 一次增量扫描得到的变化
+ */
+public class ScanDelta {
+    private final ArrayList<FileMetadata> mInserted = new ArrayList<>();
+    private final ArrayList<FileMetadata> mUpdated = new ArrayList<>();
+    private final ArrayList<String> mDeleted = new ArrayList<>();
+    private int mScannedDirectories;
+    private int mSkippedDirectories;
+
+    synchronized void addInserted(FileMetadata metadata) {
+        mInserted.add(metadata);
+    }
+
+    synchronized void addUpdated(FileMetadata metadata) {
+        mUpdated.add(metadata);
+    }
+
+    synchronized void addDeleted(String path) {
+        mDeleted.add(path);
+    }
+
+    synchronized void onDirectoryScanned(boolean skipped) {
+        if (skipped) {
+            mSkippedDirectories++;
+        } else {
+            mScannedDirectories++;
+        }
+    }
+
+    /**
+     * @return 新增的文件
+     */
+    @NonNull
+    public synchronized List<FileMetadata> getInserted() {
+        return Collections.unmodifiableList(new ArrayList<>(mInserted));
+    }
+
+    /**
+     * @return 大小或修改时间发生变化的文件
+     */
+    @NonNull
+    public synchronized List<FileMetadata> getUpdated() {
+        return Collections.unmodifiableList(new ArrayList<>(mUpdated));
+    }
+
+    /**
+     * @return 被删除的文件路径，包括被删除目录下的所有文件
+     */
+    @NonNull
+    public synchronized List<String> getDeleted() {
+        return Collections.unmodifiableList(new ArrayList<>(mDeleted));
+    }
+
+    public synchronized boolean isEmpty() {
+        return mInserted.isEmpty() && mUpdated.isEmpty() && mDeleted.isEmpty();
+    }
+
+    /**
+     * @return 重新比较了文件的目录个数
+     */
+    public synchronized int getScannedDirectories() {
+        return mScannedDirectories;
+    }
+
+    /**
+     * @return 修改时间未变化、跳过文件比较的目录个数
+     */
+    public synchronized int getSkippedDirectories() {
+        return mSkippedDirectories;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ScanDelta{inserted=" + mInserted.size() + ", updated=" + mUpdated.size() + ", deleted="
+                + mDeleted.size() + ", scanned=" + mScannedDirectories + ", skipped=" + mSkippedDirectories + "}";
+    }
+}
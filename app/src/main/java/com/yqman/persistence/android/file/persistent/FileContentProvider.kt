@@ -14,57 +14,72 @@
 
 package com.yqman.persistence.android.file.persistent
 
-import android.content.ContentProvider
+import android.content.ContentUris
 import android.content.ContentValues
 import android.database.Cursor
 import android.net.Uri
 import android.util.Log
-import com.yqman.persistence.android.database.DatabaseTools
+import com.yqman.persistence.android.database.BaseContentProvider
+import com.yqman.persistence.android.database.IDatabaseContext
+import com.yqman.persistence.android.database.UriRouter
 
-class FileContentProvider: ContentProvider() {
-    override fun bulkInsert(uri: Uri, values: Array<ContentValues>): Int {
-        if (values.isEmpty()) {
-            return 0
-        }
-        database.getDatabase(true).execSQL(DatabaseTools.buildInsertSqlString(FileContract.TABLE, values).apply {
-            Log.d("FileContentProvider", "insert $this")
-        })
-        context?.contentResolver?.apply {
-            notifyChange(uri, null, false)
-            Log.d("FileContentProvider", "notify $uri")
-        }
-        return values.size
-    }
+class FileContentProvider: BaseContentProvider() {
+    private lateinit var database: FileDatabase
 
-    override fun insert(uri: Uri, values: ContentValues?): Uri? {
-        database.getDatabase(true).insert(FileContract.TABLE, null, values)
-        return null
+    override fun onCreate(): Boolean {
+        database = FileDatabase(context)
+        return true
     }
 
-    override fun query(uri: Uri, projection: Array<String>?, selection: String?, selectionArgs: Array<String>?, sortOrder: String?): Cursor? {
-        Log.d("FileContentProvider", "query $uri")
-        return database.getDatabase(false).query(FileContract.TABLE,
-                projection, selection, selectionArgs, null, null, sortOrder)?.apply {
-            setNotificationUri(context?.contentResolver, uri)
-        }
+    override fun getDatabaseContext(): IDatabaseContext = database
+
+    override fun onCreateUriRouter(): UriRouter = UriRouter(FileContract.AUTHORITY).apply {
+        addRoute(FileContract.TABLE, FileContract.TABLE)
+                .setMimeType("vnd.android.cursor.dir/vnd.yqman.cloudfile")
+        addRoute(FileContract.SEARCH_PATH, FileContract.TABLE)
+                .setMimeType("vnd.android.cursor.dir/vnd.yqman.cloudfile")
+        addRoute("${FileContract.TABLE}/#", FileContract.TABLE)
+                .setIdColumn(FileContract.ID)
+                .setMimeType("vnd.android.cursor.item/vnd.yqman.cloudfile")
+        addRoute(FileContract.FINGERPRINT_TABLE, FileContract.FINGERPRINT_TABLE)
+                .setMimeType("vnd.android.cursor.dir/vnd.yqman.fingerprint")
     }
 
-    private lateinit var database: FileDatabase
+    private fun tableOf(uri: Uri) = matchUri(uri)?.route?.table ?: FileContract.TABLE
 
-    override fun onCreate(): Boolean {
-        database = FileDatabase(context)
-        return true
+    override fun doInsert(uri: Uri, contentValues: ContentValues?): Uri? {
+        val id = database.getDatabase(true).insert(tableOf(uri), null, contentValues)
+        if (id == -1L) {
+            return null
+        }
+        notifyChange(uri)
+        return ContentUris.withAppendedId(uri, id)
     }
 
-    override fun update(uri: Uri, values: ContentValues?, selection: String?, selectionArgs: Array<String>?): Int {
-        return database.getDatabase(true).update(FileContract.TABLE, values, selection, selectionArgs)
+    override fun doQuery(uri: Uri, projection: Array<String>?, selection: String?, selectionArgs: Array<String>?, sortOrder: String?): Cursor? {
+        Log.d("FileContentProvider", "query $uri")
+        if (matchUri(uri)?.route?.pattern == FileContract.SEARCH_PATH) {
+            val limit = uri.getQueryParameter(FileContract.SEARCH_LIMIT)?.toIntOrNull() ?: 0
+            return FileContract.FTS.searchPrefix(database.getDatabase(false),
+                    uri.getQueryParameter(FileContract.SEARCH_QUERY) ?: "", projection, limit)?.apply {
+                setNotificationUri(contentResolver, FileContract.URI)
+            }
+        }
+        return database.getDatabase(false).query(tableOf(uri),
+                projection, selection, selectionArgs, null, null, sortOrder)?.apply {
+            setNotificationUri(contentResolver, uri)
+        }
     }
 
-    override fun delete(uri: Uri, selection: String?, selectionArgs: Array<String>?): Int {
-        return database.getDatabase(true).delete(FileContract.TABLE, selection, selectionArgs)
+    override fun doUpdate(uri: Uri, contentValues: ContentValues?, selection: String?, selectionArgs: Array<String>?): Int {
+        return database.getDatabase(true).update(tableOf(uri), contentValues, selection, selectionArgs).also {
+            if (it > 0) notifyChange(uri)
+        }
     }
 
-    override fun getType(uri: Uri): String? {
-        return null
+    override fun doDelete(uri: Uri, selection: String?, selectionArgs: Array<String>?): Int {
+        return database.getDatabase(true).delete(tableOf(uri), selection, selectionArgs).also {
+            if (it > 0) notifyChange(uri)
+        }
     }
-}
\ No newline at end of file
+}
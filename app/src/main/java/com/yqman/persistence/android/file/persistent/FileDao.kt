@@ -14,18 +14,90 @@
 
 package com.yqman.persistence.android.file.persistent
 
+import android.content.ContentProviderOperation
 import android.content.ContentValues
 import android.content.Context
 
 class FileDao(private val context: Context) {
     fun insert(file: Array<LocalFile>) {
-        val fileValues = mutableListOf<ContentValues>()
-        file.forEach {
-            val value = ContentValues()
-            value.put(FileContract.PATH, it.path)
-            value.put(FileContract.NAME, it.name)
-            fileValues.add(value)
+        insert(file.asList())
+    }
+
+    /**
+     * 批量写入，path相同的记录会被替换，整批在一个事务中完成
+     */
+    fun insert(files: List<LocalFile>) {
+        val fileValues = Array(files.size) { toValues(files[it]) }
+        context.contentResolver.bulkInsert(FileContract.URI, fileValues)
+    }
+
+    /**
+     * 按路径删除，整批在一个事务中完成
+     */
+    fun delete(paths: List<String>) {
+        applyChanges(emptyList(), paths)
+    }
+
+    /**
+     * 写入files并按路径删除deletedPaths，与extraOperations全部在同一个applyBatch事务中完成
+     */
+    fun applyChanges(files: List<LocalFile>, deletedPaths: List<String>,
+                     extraOperations: List<ContentProviderOperation> = emptyList()) {
+        val operations = ArrayList<ContentProviderOperation>(files.size + deletedPaths.size + extraOperations.size)
+        files.forEach {
+            operations.add(ContentProviderOperation.newInsert(FileContract.URI)
+                    .withValues(toValues(it))
+                    .build())
+        }
+        deletedPaths.forEach {
+            operations.add(ContentProviderOperation.newDelete(FileContract.URI)
+                    .withSelection("${FileContract.PATH}=?", arrayOf(it))
+                    .build())
+        }
+        operations.addAll(extraOperations)
+        context.contentResolver.applyBatch(FileContract.AUTHORITY, operations)
+    }
+
+    /**
+     * 路径为rootPath或位于rootPath之下的所有记录，rootPath为空时返回全部记录
+     */
+    fun queryPaths(rootPath: String): List<String> {
+        val prefix = if (rootPath.isEmpty() || rootPath.endsWith("/")) rootPath else "$rootPath/"
+        val selection = if (rootPath.isEmpty()) null
+                else "${FileContract.PATH}=? OR substr(${FileContract.PATH}, 1, ${prefix.length})=?"
+        val selectionArgs = if (rootPath.isEmpty()) null else arrayOf(rootPath, prefix)
+        val result = mutableListOf<String>()
+        context.contentResolver.query(FileContract.URI, arrayOf(FileContract.PATH), selection, selectionArgs, null)?.use {
+            while (it.moveToNext()) {
+                result.add(it.getString(0))
+            }
+        }
+        return result
+    }
+
+    private fun toValues(file: LocalFile): ContentValues {
+        val value = ContentValues(4)
+        value.put(FileContract.PATH, file.path)
+        value.put(FileContract.NAME, file.name)
+        value.put(FileContract.SIZE, file.size)
+        value.put(FileContract.MTIME, file.mtime)
+        return value
+    }
+
+    /**
+     * 按文件名或路径的前缀搜索，例如"rep pd"匹配"report.pdf"
+     */
+    fun search(query: String, limit: Int = 100): List<LocalFile> {
+        val uri = FileContract.SEARCH_URI.buildUpon()
+                .appendQueryParameter(FileContract.SEARCH_QUERY, query)
+                .appendQueryParameter(FileContract.SEARCH_LIMIT, limit.toString())
+                .build()
+        val result = mutableListOf<LocalFile>()
+        context.contentResolver.query(uri, arrayOf(FileContract.PATH, FileContract.NAME), null, null, null)?.use {
+            while (it.moveToNext()) {
+                result.add(LocalFile(it.getString(0), it.getString(1)))
+            }
         }
-        context.contentResolver.bulkInsert(FileContract.URI, fileValues.toTypedArray())
+        return result
     }
-}
\ No newline at end of file
+}
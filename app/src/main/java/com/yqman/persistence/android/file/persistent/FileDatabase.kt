@@ -16,30 +16,69 @@ package com.yqman.persistence.android.file.persistent
 
 import android.content.Context
 import android.net.Uri
+import com.yqman.persistence.android.app.BuildConfig
 import com.yqman.persistence.android.database.BaseWCDBDatabase
+import com.yqman.persistence.android.database.DatabaseConfig
+import com.yqman.persistence.android.database.DatabaseSchema
+import com.yqman.persistence.android.database.FtsIndex
 import com.yqman.persistence.android.database.IDatabaseOperation
+import com.yqman.persistence.android.database.IndexSchema
+import com.yqman.persistence.android.database.QueryProfiler
+import com.yqman.persistence.android.database.TableSchema
 
-class FileDatabase(context: Context): BaseWCDBDatabase(context, "FileDatabase",1) {
+class FileDatabase(context: Context): BaseWCDBDatabase(context, "FileDatabase",5) {
+
+    init {
+        if (BuildConfig.DEBUG) {
+            setQueryProfiler(QueryProfiler().setExplainEnabled(true))
+        }
+    }
+
+    // cloudfile使用ON CONFLICT REPLACE，全文索引的触发器依赖recursive_triggers
+    override fun onCreateDatabaseConfig(): DatabaseConfig =
+            DatabaseConfig.THROUGHPUT.buildUpon().setRecursiveTriggers(true).build()
 
     override fun create(databaseOperation: IDatabaseOperation) {
-        databaseOperation.execSQL("CREATE TABLE "+ FileContract.TABLE +" ("
-                + FileContract.ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + FileContract.PATH + " TEXT not null, "
-                + FileContract.NAME + " TEXT not null, "
-                + " UNIQUE("+ FileContract.PATH + ") ON CONFLICT REPLACE)")
+        FileContract.SCHEMA.create(databaseOperation)
     }
 
     override fun upgrade(databaseOperation: IDatabaseOperation, oldVersion: Int, newVersion: Int) {
-
+        FileContract.SCHEMA.migrate(databaseOperation)
     }
 }
 
-data class LocalFile(val path: String, val name: String)
+data class LocalFile(val path: String, val name: String, val size: Long = 0, val mtime: Long = 0)
 
 object FileContract {
-    val URI = Uri.parse("content://com.yqman.persistence.android/cloudfile")
+    const val AUTHORITY = "com.yqman.persistence.android"
+    val URI = Uri.parse("content://$AUTHORITY/cloudfile")
     const val TABLE = "cloudfile"
     const val ID = "_id"
     const val PATH = "path"
     const val NAME = "name"
+    const val SIZE = "size"
+    const val MTIME = "mtime"
+    const val SEARCH_PATH = "$TABLE/search"
+    const val SEARCH_QUERY = "q"
+    const val SEARCH_LIMIT = "limit"
+    val SEARCH_URI: Uri = Uri.parse("content://$AUTHORITY/$SEARCH_PATH")
+    // IncrementalScanner的目录指纹，见FileFingerprintStore
+    const val FINGERPRINT_TABLE = "fingerprint"
+    val FINGERPRINT_URI: Uri = Uri.parse("content://$AUTHORITY/$FINGERPRINT_TABLE")
+    const val FINGERPRINT_PATH = "path"
+    const val FINGERPRINT_VALUE = "value"
+    val FTS = FtsIndex("cloudfile_fts", TABLE, NAME, PATH).setContentRowId(ID)
+    val SCHEMA: DatabaseSchema = DatabaseSchema()
+            .addTable(TableSchema(TABLE)
+                    .addColumn(ID, "INTEGER PRIMARY KEY AUTOINCREMENT")
+                    .addColumn(PATH, "TEXT not null")
+                    .addColumn(NAME, "TEXT not null")
+                    .addColumn(SIZE, "INTEGER not null DEFAULT 0")
+                    .addColumn(MTIME, "INTEGER not null DEFAULT 0")
+                    .setTableConstraint("UNIQUE($PATH) ON CONFLICT REPLACE")
+                    .addIndex(IndexSchema("cloudfile_name_index", NAME)))
+            .addTable(TableSchema(FINGERPRINT_TABLE)
+                    .addColumn(FINGERPRINT_PATH, "TEXT PRIMARY KEY ON CONFLICT REPLACE")
+                    .addColumn(FINGERPRINT_VALUE, "TEXT not null"))
+            .addFtsIndex(FTS)
 }
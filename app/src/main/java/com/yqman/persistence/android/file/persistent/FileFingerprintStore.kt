@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file.persistent
+
+import android.content.ContentProviderOperation
+import android.content.Context
+import com.yqman.persistence.android.file.DirectoryFingerprint
+import com.yqman.persistence.android.file.IFingerprintStore
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 把目录指纹保存在fingerprint表中，进程重启后增量扫描可以继续使用
+ * 第一次使用时把整张表读入内存；扫描中的修改先留在内存，由[pendingOperations]取出后与文件变化在同一个事务中提交
+ */
+class FileFingerprintStore(private val context: Context) : IFingerprintStore {
+    private val fingerprints by lazy { load() }
+    // value为true表示需要写入，false表示需要删除
+    private val dirty = ConcurrentHashMap<String, Boolean>()
+
+    override fun get(path: String): DirectoryFingerprint? = fingerprints[path]
+
+    override fun put(path: String, fingerprint: DirectoryFingerprint) {
+        fingerprints[path] = fingerprint
+        dirty[path] = true
+    }
+
+    override fun remove(path: String) {
+        fingerprints.remove(path)
+        dirty[path] = false
+    }
+
+    /**
+     * 尚未写入数据库的修改，提交成功后需要调用[onCommitted]
+     */
+    fun pendingOperations(): List<ContentProviderOperation> {
+        val operations = ArrayList<ContentProviderOperation>(dirty.size)
+        for ((path, write) in dirty) {
+            val fingerprint = fingerprints[path]
+            if (write && fingerprint != null) {
+                operations.add(ContentProviderOperation.newInsert(FileContract.FINGERPRINT_URI)
+                        .withValue(FileContract.FINGERPRINT_PATH, path)
+                        .withValue(FileContract.FINGERPRINT_VALUE, fingerprint.encode())
+                        .build())
+            } else {
+                operations.add(ContentProviderOperation.newDelete(FileContract.FINGERPRINT_URI)
+                        .withSelection("${FileContract.FINGERPRINT_PATH}=?", arrayOf(path))
+                        .build())
+            }
+        }
+        return operations
+    }
+
+    fun onCommitted() {
+        dirty.clear()
+    }
+
+    private fun load(): ConcurrentHashMap<String, DirectoryFingerprint> {
+        val result = ConcurrentHashMap<String, DirectoryFingerprint>()
+        context.contentResolver.query(FileContract.FINGERPRINT_URI,
+                arrayOf(FileContract.FINGERPRINT_PATH, FileContract.FINGERPRINT_VALUE), null, null, null)?.use {
+            while (it.moveToNext()) {
+                // 无法解析的记录当作没有指纹，对应目录会重新比较所有文件
+                DirectoryFingerprint.decode(it.getString(1))?.let { fingerprint ->
+                    result[it.getString(0)] = fingerprint
+                }
+            }
+        }
+        return result
+    }
+}
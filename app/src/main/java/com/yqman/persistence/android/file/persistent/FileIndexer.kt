@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yqman.persistence.android.file.persistent
+
+import android.annotation.TargetApi
+import android.content.Context
+import android.net.Uri
+import android.os.Build
+import android.util.Log
+import com.yqman.persistence.android.file.AndroidDirectory
+import com.yqman.persistence.android.file.DirectoryCrawler
+import com.yqman.persistence.android.file.FileMetadata
+import com.yqman.persistence.android.file.IncrementalScanner
+import com.yqman.persistence.android.file.ScanDelta
+import com.yqman.persistence.file.FileAccessErrException
+import com.yqman.persistence.file.IDirectoryVisitor
+
+/**
+ * 遍历用户授权的目录树，把文件信息分批写入cloudfile表
+ */
+@TargetApi(Build.VERSION_CODES.N)
+class FileIndexer(private val context: Context) {
+    private val dao = FileDao(context)
+    private val crawler = DirectoryCrawler()
+    private val fingerprintStore = FileFingerprintStore(context)
+    private val scanner = IncrementalScanner(fingerprintStore)
+
+    /**
+     * 阻塞直到遍历结束，需要在后台线程调用
+     * 遍历不记录目录指纹，已有的指纹会被清除，之后的[rescan]重新比较所有文件并与数据库核对删除
+     * @return 写入的文件个数
+     */
+    fun index(treeUri: Uri): Long {
+        val root = AndroidDirectory(context, treeUri)
+        val rootPath = root.displayName ?: ""
+        scanner.reset(rootPath)
+        commit(emptyList(), emptyList())
+        return crawler.crawl(root, rootPath, object : DirectoryCrawler.IListener {
+            override fun onBatch(batch: List<FileMetadata>) {
+                dao.insert(batch.map { LocalFile(it.path, it.name, it.size, it.mTime) })
+            }
+
+            override fun onError(directory: IDirectoryVisitor, e: FileAccessErrException) {
+                Log.w("FileIndexer", "skip ${directory.identifier}", e)
+            }
+        })
+    }
+
+    /**
+     * 只写入与上一次扫描相比发生变化的文件，目录指纹保存在数据库中，进程重启后仍然有效
+     * 没有指纹时(第一次扫描或[index]之后)等同于完整索引，并删除数据库中已不存在的文件
+     * @return 本次的变化，不包含与数据库核对得到的删除
+     */
+    fun rescan(treeUri: Uri): ScanDelta {
+        val root = AndroidDirectory(context, treeUri)
+        val rootPath = root.displayName ?: ""
+        val firstScan = fingerprintStore.get(rootPath) == null
+        val delta = scanner.scan(root, rootPath)
+        val deleted = if (firstScan) delta.deleted + reconcileDeleted(rootPath) else delta.deleted
+        val changed = delta.inserted + delta.updated
+        // 新增、修改、删除与目录指纹在同一个事务中提交，观察者只会看到一次变化，进程中断时指纹也不会领先于数据
+        commit(changed.map { LocalFile(it.path, it.name, it.size, it.mTime) }, deleted)
+        Log.d("FileIndexer", "rescan $treeUri $delta reconciled=${deleted.size - delta.deleted.size}")
+        return delta
+    }
+
+    /**
+     * 数据库中位于rootPath之下、但已不在扫描结果中的文件
+     * 从文件所在目录向上找到最近的有指纹的目录，再检查下一级的名字是否还在其中；
+     * 名字还在但没有指纹说明该目录无法列举，保留其中的记录
+     */
+    private fun reconcileDeleted(rootPath: String): List<String> {
+        return dao.queryPaths(rootPath).filter { path ->
+            var parent = path.substringBeforeLast('/', "")
+            var name = path.substringAfterLast('/')
+            var isFile = true
+            var fingerprint = fingerprintStore.get(parent)
+            while (fingerprint == null && parent != rootPath && parent.isNotEmpty()) {
+                name = parent.substringAfterLast('/')
+                parent = parent.substringBeforeLast('/', "")
+                isFile = false
+                fingerprint = fingerprintStore.get(parent)
+            }
+            when {
+                fingerprint == null -> false
+                isFile -> !fingerprint.files.containsKey(name)
+                else -> !fingerprint.directories.contains(name)
+            }
+        }
+    }
+
+    private fun commit(files: List<LocalFile>, deletedPaths: List<String>) {
+        val fingerprintOperations = fingerprintStore.pendingOperations()
+        if (files.isEmpty() && deletedPaths.isEmpty() && fingerprintOperations.isEmpty()) {
+            return
+        }
+        dao.applyChanges(files, deletedPaths, fingerprintOperations)
+        fingerprintStore.onCommitted()
+    }
+
+    fun cancel() {
+        crawler.cancel()
+    }
+}